@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase;
+
+import com.google.firebase.database.DataSnapshot;
+
+import rx.functions.Func1;
+
+/**
+ * Typed field extractors which read a single child value out of a
+ * {@link DataSnapshot} without mapping the whole object
+ */
+public final class FieldExtractors {
+
+  //Prevent constructor initialisation
+  private FieldExtractors() {
+
+  }
+
+  /**
+   * Reads the value of the child at the given relative path, or null when the
+   * child does not exist
+   */
+  public static <T> Func1<DataSnapshot, T> child(final String path, final Class<T> type) {
+    return new Func1<DataSnapshot, T>() {
+      @Override public T call(DataSnapshot dataSnapshot) {
+        if (!dataSnapshot.hasChild(path)) {
+          return null;
+        }
+        return dataSnapshot.child(path).getValue(type);
+      }
+    };
+  }
+
+  /**
+   * Reads a numeric child as a {@link Number}, accepting both the {@link Long} and
+   * {@link Double} values the database hands back
+   */
+  public static Func1<DataSnapshot, Number> number(final String path) {
+    return new Func1<DataSnapshot, Number>() {
+      @Override public Number call(DataSnapshot dataSnapshot) {
+        if (!dataSnapshot.hasChild(path)) {
+          return null;
+        }
+        Object value = dataSnapshot.child(path).getValue();
+        return value instanceof Number ? (Number) value : null;
+      }
+    };
+  }
+
+  /**
+   * Reads the key of the snapshot itself
+   */
+  public static Func1<DataSnapshot, String> key() {
+    return new Func1<DataSnapshot, String>() {
+      @Override public String call(DataSnapshot dataSnapshot) {
+        return dataSnapshot.getKey();
+      }
+    };
+  }
+}
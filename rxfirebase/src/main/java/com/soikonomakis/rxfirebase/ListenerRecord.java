@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class represents a firebase listener attached by {@link RxFirebase} while a
+ * {@link ListenerTracker} is installed
+ */
+public class ListenerRecord {
+
+  private final ListenerTracker tracker;
+
+  private final long id;
+
+  /**
+   * The kind of the listener, e.g. value, single value or child
+   */
+  private final String kind;
+
+  /**
+   * The location the listener is attached to
+   */
+  private final String path;
+
+  /**
+   * The first frame outside of this library, RxJava and the platform when the observable
+   * of the listener was created
+   */
+  private final String callSite;
+
+  private final long attachedAtMillis;
+
+  /**
+   * The owner the subscription was bound to, if any. Held weakly so the record never
+   * keeps it alive.
+   */
+  private final WeakReference<Object> owner;
+
+  private final AtomicLong eventCount = new AtomicLong();
+
+  ListenerRecord(ListenerTracker tracker, long id, String kind, String path, String callSite,
+      long attachedAtMillis, Object owner) {
+    this.tracker = tracker;
+    this.id = id;
+    this.kind = kind;
+    this.path = path;
+    this.callSite = callSite;
+    this.attachedAtMillis = attachedAtMillis;
+    this.owner = owner == null ? null : new WeakReference<>(owner);
+  }
+
+  void onEvent() {
+    eventCount.incrementAndGet();
+  }
+
+  void detach() {
+    tracker.detach(this);
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public String getKind() {
+    return kind;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public String getCallSite() {
+    return callSite;
+  }
+
+  public long getAttachedAtMillis() {
+    return attachedAtMillis;
+  }
+
+  public long getAgeMillis() {
+    return System.currentTimeMillis() - attachedAtMillis;
+  }
+
+  public long getEventCount() {
+    return eventCount.get();
+  }
+
+  public boolean hasOwner() {
+    return owner != null;
+  }
+
+  /**
+   * Whether the subscription was bound to an owner which has been garbage collected
+   * while the listener is still attached. Never true while the subscriber references
+   * the owner, see {@link ListenerTracker#ownedBy(Object)}.
+   */
+  public boolean isOwnerCollected() {
+    return owner != null && owner.get() == null;
+  }
+
+  @Override public String toString() {
+    return "ListenerRecord{id=" + id
+        + ", kind=" + kind
+        + ", path=" + path
+        + ", callSite=" + callSite
+        + ", ageMillis=" + getAgeMillis()
+        + ", eventCount=" + getEventCount()
+        + ", ownerCollected=" + isOwnerCollected()
+        + "}";
+  }
+}
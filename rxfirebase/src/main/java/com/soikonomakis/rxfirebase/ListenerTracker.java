@@ -0,0 +1,250 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase;
+
+import com.google.firebase.database.Query;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Observable;
+import rx.Subscriber;
+
+/**
+ * An opt-in tracker of the firebase listeners attached through {@link RxFirebase}.
+ *
+ * <p>For every listener it records the call site which created the observable, how long
+ * the listener has been attached and how many events it has delivered. The call site is
+ * the first frame outside of this library, RxJava and the platform, taken on the
+ * calling thread when the {@link RxFirebase} method is called, so subscribing through a
+ * scheduler does not hide it. Listeners which
+ * outlived the age threshold, or whose owner has been garbage collected, are reported
+ * by {@link #findSuspects()}. It also counts attaches per call site, which exposes
+ * code that churns subscriptions.
+ *
+ * <p>Capturing the call site costs a stack walk per observable created while a tracker
+ * is installed, so the tracker is meant for debug builds:
+ *
+ * <pre>
+ * ListenerTracker tracker = new ListenerTracker(TimeUnit.MINUTES.toMillis(5));
+ * RxFirebase.getInstance().setListenerTracker(tracker);
+ *
+ * RxFirebase.getInstance()
+ *     .observeValueEvent(ref)
+ *     .compose(tracker.&lt;DataSnapshot&gt;ownedBy(this))
+ *     .subscribe(...);
+ * </pre>
+ */
+public class ListenerTracker {
+
+  private static final ThreadLocal<Object> CURRENT_OWNER = new ThreadLocal<>();
+
+  /**
+   * The packages whose frames are never reported as a call site by default: this
+   * library, RxJava and the platform
+   */
+  private static final String[] IGNORED_PACKAGES = {
+      "com.soikonomakis.rxfirebase.", "rx.", "java.", "javax.", "sun.", "jdk.internal.",
+      "android.", "dalvik.", "com.android.internal."
+  };
+
+  private final long maxAgeMillis;
+
+  private final String[] ignoredPackages;
+
+  private final AtomicLong ids = new AtomicLong();
+
+  private final AtomicLong attached = new AtomicLong();
+
+  private final AtomicLong detached = new AtomicLong();
+
+  private final Map<Long, ListenerRecord> active = new ConcurrentHashMap<>();
+
+  private final ConcurrentHashMap<String, AtomicLong> attachesByCallSite =
+      new ConcurrentHashMap<>();
+
+  /**
+   * @param maxAgeMillis listeners attached for longer than this are reported as suspects
+   */
+  public ListenerTracker(long maxAgeMillis) {
+    this(maxAgeMillis, IGNORED_PACKAGES);
+  }
+
+  /**
+   * @param ignoredPackages the prefixes of the classes whose frames are never reported as
+   * a call site, besides the tracker and {@link RxFirebase} themselves
+   */
+  ListenerTracker(long maxAgeMillis, String... ignoredPackages) {
+    this.maxAgeMillis = maxAgeMillis;
+    this.ignoredPackages = ignoredPackages;
+  }
+
+  /**
+   * Binds the listeners attached by the upstream {@link RxFirebase} observable to an
+   * owner, e.g. an activity. The owner is held weakly, and a listener which is still
+   * attached after its owner has been collected is reported as a suspect.
+   *
+   * <p>The owner is handed over on the subscribing thread, so compose it directly after
+   * the {@link RxFirebase} call and before any {@code subscribeOn}.
+   *
+   * <p>A collected owner is only detected when nothing else keeps it alive. A subscriber
+   * whose callbacks reference the owner, e.g. an anonymous class or a method reference
+   * inside an activity, holds it strongly through the attached listener, which is the
+   * usual way an activity leaks. Such a leak shows up as a listener outliving the age
+   * threshold instead.
+   */
+  public <T> Observable.Transformer<T, T> ownedBy(Object owner) {
+    // the subscribed observable may be retained by its subscriber, so it must not
+    // keep the owner alive either
+    final WeakReference<Object> ownerReference = new WeakReference<>(owner);
+    return new Observable.Transformer<T, T>() {
+      @Override public Observable<T> call(final Observable<T> source) {
+        return Observable.create(new Observable.OnSubscribe<T>() {
+          @Override public void call(Subscriber<? super T> subscriber) {
+            Object previous = CURRENT_OWNER.get();
+            CURRENT_OWNER.set(ownerReference.get());
+            try {
+              source.unsafeSubscribe(subscriber);
+            } finally {
+              CURRENT_OWNER.set(previous);
+            }
+          }
+        });
+      }
+    };
+  }
+
+  /**
+   * Records a listener which is being attached to the query
+   *
+   * @param callSite the call site captured when the observable was created, or null
+   * when the tracker was installed after that
+   */
+  ListenerRecord attach(String kind, Query ref, String callSite) {
+    if (callSite == null) {
+      callSite = findCallSite();
+    }
+    ListenerRecord record = new ListenerRecord(this, ids.incrementAndGet(), kind, pathOf(ref),
+        callSite, System.currentTimeMillis(), CURRENT_OWNER.get());
+    active.put(record.getId(), record);
+    attached.incrementAndGet();
+    AtomicLong count = attachesByCallSite.get(callSite);
+    if (count == null) {
+      attachesByCallSite.putIfAbsent(callSite, new AtomicLong());
+      count = attachesByCallSite.get(callSite);
+    }
+    count.incrementAndGet();
+    return record;
+  }
+
+  /**
+   * Records that the listener has been removed
+   */
+  void detach(ListenerRecord record) {
+    if (active.remove(record.getId()) != null) {
+      detached.incrementAndGet();
+    }
+  }
+
+  /**
+   * Returns the listeners which are currently attached, oldest first
+   */
+  public List<ListenerRecord> getActiveListeners() {
+    List<ListenerRecord> records = new ArrayList<>(active.values());
+    Collections.sort(records, new Comparator<ListenerRecord>() {
+      @Override public int compare(ListenerRecord lhs, ListenerRecord rhs) {
+        return lhs.getId() < rhs.getId() ? -1 : (lhs.getId() == rhs.getId() ? 0 : 1);
+      }
+    });
+    return records;
+  }
+
+  /**
+   * Returns the attached listeners whose owner has been garbage collected or which
+   * outlived the age threshold
+   */
+  public List<ListenerRecord> findSuspects() {
+    List<ListenerRecord> suspects = new ArrayList<>();
+    for (ListenerRecord record : getActiveListeners()) {
+      if (record.isOwnerCollected() || record.getAgeMillis() > maxAgeMillis) {
+        suspects.add(record);
+      }
+    }
+    return suspects;
+  }
+
+  /**
+   * Returns the number of listeners attached so far per call site
+   */
+  public Map<String, Long> getAttachesByCallSite() {
+    Map<String, Long> attaches = new HashMap<>();
+    for (Map.Entry<String, AtomicLong> entry : attachesByCallSite.entrySet()) {
+      attaches.put(entry.getKey(), entry.getValue().get());
+    }
+    return attaches;
+  }
+
+  public long getAttachedCount() {
+    return attached.get();
+  }
+
+  public long getDetachedCount() {
+    return detached.get();
+  }
+
+  private static String pathOf(Query ref) {
+    return ref.getRef() == null ? null : ref.getRef().toString();
+  }
+
+  /**
+   * Returns the first frame of the current stack outside of this library, RxJava and
+   * the platform
+   */
+  String findCallSite() {
+    return findCallSite(new Throwable().getStackTrace());
+  }
+
+  String findCallSite(StackTraceElement[] stack) {
+    for (StackTraceElement element : stack) {
+      if (!isIgnored(element.getClassName())) {
+        return element.toString();
+      }
+    }
+    return "unknown";
+  }
+
+  private boolean isIgnored(String className) {
+    if (isClassOrInner(className, ListenerTracker.class)
+        || isClassOrInner(className, RxFirebase.class)) {
+      return true;
+    }
+    for (String ignored : ignoredPackages) {
+      if (className.startsWith(ignored)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isClassOrInner(String className, Class<?> cls) {
+    return className.equals(cls.getName()) || className.startsWith(cls.getName() + "$");
+  }
+}
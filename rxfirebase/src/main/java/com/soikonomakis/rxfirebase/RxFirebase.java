@@ -44,6 +44,8 @@ public class RxFirebase {
 
     private static RxFirebase instance;
 
+    private volatile ListenerTracker listenerTracker;
+
     /**
      * Singleton
      *
@@ -61,6 +63,14 @@ public class RxFirebase {
 
     }
 
+    /**
+     * Installs a tracker which records every firebase listener attached from now on,
+     * or removes it when null
+     */
+    public void setListenerTracker(ListenerTracker listenerTracker) {
+        this.listenerTracker = listenerTracker;
+    }
+
     /**
      * Attempts to authenticate to Firebase with an OAuth token from a provider supported by Firebase
      * Login. This method only works for providers that only require a 'access_token' as a parameter
@@ -92,12 +102,15 @@ public class RxFirebase {
      * when the firebase client uses a ValueEventListener
      */
     public Observable<DataSnapshot> observeValueEvent(final Query ref) {
+        final String callSite = findCallSite();
         return Observable.create(new Observable.OnSubscribe<DataSnapshot>() {
             @Override
             public void call(final Subscriber<? super DataSnapshot> subscriber) {
+                final ListenerRecord record = attachRecord("value", ref, callSite);
                 final ValueEventListener listener = ref.addValueEventListener(new ValueEventListener() {
                     @Override
                     public void onDataChange(DataSnapshot dataSnapshot) {
+                        onEvent(record);
                         subscriber.onNext(dataSnapshot);
                     }
 
@@ -112,6 +125,7 @@ public class RxFirebase {
                     @Override
                     public void call() {
                         ref.removeEventListener(listener);
+                        detachRecord(record);
                     }
                 }));
             }
@@ -124,12 +138,15 @@ public class RxFirebase {
      * when the firebase client uses a ValueEventListener
      */
     public Observable<DataSnapshot> observeSingleValue(final Query ref) {
+        final String callSite = findCallSite();
         return Observable.create(new Observable.OnSubscribe<DataSnapshot>() {
             @Override
             public void call(final Subscriber<? super DataSnapshot> subscriber) {
+                final ListenerRecord record = attachRecord("single", ref, callSite);
                 final ValueEventListener listener = new ValueEventListener() {
                     @Override
                     public void onDataChange(DataSnapshot dataSnapshot) {
+                        onEvent(record);
                         subscriber.onNext(dataSnapshot);
                         subscriber.onCompleted();
                     }
@@ -147,6 +164,7 @@ public class RxFirebase {
                     @Override
                     public void call() {
                         ref.removeEventListener(listener);
+                        detachRecord(record);
                     }
                 }));
             }
@@ -159,31 +177,37 @@ public class RxFirebase {
      * when the firebase client uses a ChildEventListener
      */
     public Observable<FirebaseChildEvent> observeChildEvent(final Query ref) {
+        final String callSite = findCallSite();
         return Observable.create(new Observable.OnSubscribe<FirebaseChildEvent>() {
             @Override
             public void call(final Subscriber<? super FirebaseChildEvent> subscriber) {
+                final ListenerRecord record = attachRecord("child", ref, callSite);
                 final ChildEventListener childEventListener =
                         ref.addChildEventListener(new ChildEventListener() {
 
                             @Override
                             public void onChildAdded(DataSnapshot dataSnapshot, String previousChildName) {
+                                onEvent(record);
                                 subscriber.onNext(
                                         new FirebaseChildEvent(dataSnapshot, previousChildName, EventType.ADDED));
                             }
 
                             @Override
                             public void onChildChanged(DataSnapshot dataSnapshot, String previousChildName) {
+                                onEvent(record);
                                 subscriber.onNext(
                                         new FirebaseChildEvent(dataSnapshot, previousChildName, EventType.CHANGED));
                             }
 
                             @Override
                             public void onChildRemoved(DataSnapshot dataSnapshot) {
+                                onEvent(record);
                                 subscriber.onNext(new FirebaseChildEvent(dataSnapshot, EventType.REMOVED));
                             }
 
                             @Override
                             public void onChildMoved(DataSnapshot dataSnapshot, String previousChildName) {
+                                onEvent(record);
                                 subscriber.onNext(
                                         new FirebaseChildEvent(dataSnapshot, previousChildName, EventType.MOVED));
                             }
@@ -201,6 +225,7 @@ public class RxFirebase {
                     @Override
                     public void call() {
                         ref.removeEventListener(childEventListener);
+                        detachRecord(record);
                     }
                 }));
             }
@@ -249,6 +274,35 @@ public class RxFirebase {
     }
 
 
+    /**
+     * Captures the caller on the calling thread, before any scheduler gets in between,
+     * returns null when tracking is off
+     */
+    private String findCallSite() {
+        ListenerTracker tracker = listenerTracker;
+        return tracker == null ? null : tracker.findCallSite();
+    }
+
+    /**
+     * Records a listener in the installed tracker, returns null when tracking is off
+     */
+    private ListenerRecord attachRecord(String kind, Query ref, String callSite) {
+        ListenerTracker tracker = listenerTracker;
+        return tracker == null ? null : tracker.attach(kind, ref, callSite);
+    }
+
+    private void detachRecord(ListenerRecord record) {
+        if (record != null) {
+            record.detach();
+        }
+    }
+
+    private void onEvent(ListenerRecord record) {
+        if (record != null) {
+            record.onEvent();
+        }
+    }
+
     private <T> void attachErrorHandler(Subscriber<T> subscriber, DatabaseError firebaseError) {
         subscriber.onError(new FirebaseDatabaseError(firebaseError.getCode(), firebaseError.getMessage() + firebaseError.getDetails()));
     }
@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase.aggregation;
+
+import com.google.firebase.database.DataSnapshot;
+import com.soikonomakis.rxfirebase.FirebaseChildEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import rx.functions.Func1;
+
+/**
+ * Keeps the last extracted value of every child so that a CHANGED or REMOVED
+ * event can retract exactly what its ADDED event contributed. Subclasses only
+ * see {@link #added(String, Object)} and {@link #removed(String, Object)} calls.
+ */
+abstract class Aggregator<V, R> {
+
+  private final Func1<DataSnapshot, ? extends V> extractor;
+
+  private final Map<String, V> values = new HashMap<>();
+
+  Aggregator(Func1<DataSnapshot, ? extends V> extractor) {
+    this.extractor = extractor;
+  }
+
+  /**
+   * Applies a child event to the aggregate state. MOVED events carry no value
+   * change and are ignored.
+   */
+  final void apply(FirebaseChildEvent event) {
+    DataSnapshot dataSnapshot = event.getDataSnapshot();
+    String key = dataSnapshot.getKey();
+    switch (event.getEventType()) {
+      case ADDED:
+      case CHANGED:
+        V value = extractor.call(dataSnapshot);
+        V previous = value == null ? values.remove(key) : values.put(key, value);
+        if (previous != null) {
+          removed(key, previous);
+        }
+        if (value != null) {
+          added(key, value);
+        }
+        break;
+      case REMOVED:
+        V removed = values.remove(key);
+        if (removed != null) {
+          removed(key, removed);
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  final int size() {
+    return values.size();
+  }
+
+  abstract void added(String key, V value);
+
+  abstract void removed(String key, V value);
+
+  abstract R result();
+}
@@ -0,0 +1,398 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase.aggregation;
+
+import com.google.firebase.database.DataSnapshot;
+import com.soikonomakis.rxfirebase.FirebaseChildEvent;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import rx.Observable;
+import rx.functions.Func0;
+import rx.functions.Func1;
+
+/**
+ * Incremental aggregation operators for the stream returned by
+ * {@link com.soikonomakis.rxfirebase.RxFirebase#observeChildEvent}.
+ *
+ * <p>Every operator keeps its own state and updates it from the ADDED, CHANGED and
+ * REMOVED events, instead of re-scanning the whole collection. Counts and sums cost
+ * O(1) per event, min, max and top-N cost O(log n), and top-N copies its N entries
+ * when it emits. A new value is emitted only when the aggregate actually changes.
+ *
+ * <pre>
+ * RxFirebase.getInstance()
+ *     .observeChildEvent(scoresRef)
+ *     .compose(ChildAggregations.top(10, FieldExtractors.child("score", Long.class)))
+ *     .subscribe(...);
+ * </pre>
+ */
+public final class ChildAggregations {
+
+  //Prevent constructor initialisation
+  private ChildAggregations() {
+
+  }
+
+  /**
+   * Counts the children of the query
+   */
+  public static Observable.Transformer<FirebaseChildEvent, Integer> count() {
+    return count(new Func1<DataSnapshot, Boolean>() {
+      @Override public Boolean call(DataSnapshot dataSnapshot) {
+        return true;
+      }
+    });
+  }
+
+  /**
+   * Counts the children which match the given predicate, e.g. unread messages
+   */
+  public static Observable.Transformer<FirebaseChildEvent, Integer> count(
+      final Func1<DataSnapshot, Boolean> predicate) {
+    return aggregate(new Func0<Aggregator<?, Integer>>() {
+      @Override public Aggregator<?, Integer> call() {
+        return new CountAggregator(predicate);
+      }
+    });
+  }
+
+  /**
+   * Sums a numeric field over all the children. Children without the field are
+   * left out of the sum. The sum is an exact {@link Long} while every value is
+   * integral, an exact {@link BigInteger} while such a sum is out of the range of a long,
+   * and a {@link Double} once a fractional value takes part.
+   */
+  public static Observable.Transformer<FirebaseChildEvent, Number> sum(
+      final Func1<DataSnapshot, ? extends Number> extractor) {
+    return aggregate(new Func0<Aggregator<?, Number>>() {
+      @Override public Aggregator<?, Number> call() {
+        return new SumAggregator(extractor);
+      }
+    });
+  }
+
+  /**
+   * Emits the smallest value of a field, or null when no child has the field
+   */
+  public static <V extends Comparable<? super V>> Observable.Transformer<FirebaseChildEvent, V> min(
+      Func1<DataSnapshot, ? extends V> extractor) {
+    return min(extractor, ChildAggregations.<V>natural());
+  }
+
+  /**
+   * Emits the smallest value of a field according to the comparator, or null when
+   * no child has the field
+   */
+  public static <V> Observable.Transformer<FirebaseChildEvent, V> min(
+      final Func1<DataSnapshot, ? extends V> extractor, final Comparator<? super V> comparator) {
+    return aggregate(new Func0<Aggregator<?, V>>() {
+      @Override public Aggregator<?, V> call() {
+        return new ExtremumAggregator<V>(extractor, comparator, true);
+      }
+    });
+  }
+
+  /**
+   * Emits the largest value of a field, or null when no child has the field
+   */
+  public static <V extends Comparable<? super V>> Observable.Transformer<FirebaseChildEvent, V> max(
+      Func1<DataSnapshot, ? extends V> extractor) {
+    return max(extractor, ChildAggregations.<V>natural());
+  }
+
+  /**
+   * Emits the largest value of a field according to the comparator, or null when
+   * no child has the field
+   */
+  public static <V> Observable.Transformer<FirebaseChildEvent, V> max(
+      final Func1<DataSnapshot, ? extends V> extractor, final Comparator<? super V> comparator) {
+    return aggregate(new Func0<Aggregator<?, V>>() {
+      @Override public Aggregator<?, V> call() {
+        return new ExtremumAggregator<V>(extractor, comparator, false);
+      }
+    });
+  }
+
+  /**
+   * Emits the children with the n largest values of a field, largest first. Ties
+   * are ordered by key.
+   */
+  public static <V extends Comparable<? super V>> Observable.Transformer<FirebaseChildEvent, List<KeyedValue<V>>> top(
+      int n, Func1<DataSnapshot, ? extends V> extractor) {
+    return top(n, extractor, Collections.reverseOrder(ChildAggregations.<V>natural()));
+  }
+
+  /**
+   * Emits the first n children ordered by the comparator. Ties are ordered by key.
+   */
+  public static <V> Observable.Transformer<FirebaseChildEvent, List<KeyedValue<V>>> top(
+      final int n, final Func1<DataSnapshot, ? extends V> extractor,
+      final Comparator<? super V> comparator) {
+    if (n <= 0) {
+      throw new IllegalArgumentException("n must be positive but was " + n);
+    }
+    return aggregate(new Func0<Aggregator<?, List<KeyedValue<V>>>>() {
+      @Override public Aggregator<?, List<KeyedValue<V>>> call() {
+        return new TopAggregator<V>(n, extractor, comparator);
+      }
+    });
+  }
+
+  /**
+   * Creates a fresh aggregator for every subscription and feeds it the child events
+   */
+  private static <R> Observable.Transformer<FirebaseChildEvent, R> aggregate(
+      final Func0<? extends Aggregator<?, R>> factory) {
+    return new Observable.Transformer<FirebaseChildEvent, R>() {
+      @Override public Observable<R> call(final Observable<FirebaseChildEvent> events) {
+        return Observable.defer(new Func0<Observable<R>>() {
+          @Override public Observable<R> call() {
+            final Aggregator<?, R> aggregator = factory.call();
+            return events.map(new Func1<FirebaseChildEvent, R>() {
+              @Override public R call(FirebaseChildEvent firebaseChildEvent) {
+                aggregator.apply(firebaseChildEvent);
+                return aggregator.result();
+              }
+            }).distinctUntilChanged();
+          }
+        });
+      }
+    };
+  }
+
+  private static <V extends Comparable<? super V>> Comparator<V> natural() {
+    return new Comparator<V>() {
+      @Override public int compare(V lhs, V rhs) {
+        return lhs.compareTo(rhs);
+      }
+    };
+  }
+
+  private static final class CountAggregator extends Aggregator<Boolean, Integer> {
+
+    CountAggregator(final Func1<DataSnapshot, Boolean> predicate) {
+      // non matching children are mapped to null so they are never stored
+      super(new Func1<DataSnapshot, Boolean>() {
+        @Override public Boolean call(DataSnapshot dataSnapshot) {
+          return Boolean.TRUE.equals(predicate.call(dataSnapshot)) ? Boolean.TRUE : null;
+        }
+      });
+    }
+
+    @Override void added(String key, Boolean value) {
+    }
+
+    @Override void removed(String key, Boolean value) {
+    }
+
+    @Override Integer result() {
+      return size();
+    }
+  }
+
+  /**
+   * Sums integral values exactly in a long, spilling into a big integer on overflow, and
+   * only the fractional values in a compensated double sum, which is reset as soon as
+   * no fractional value is left
+   */
+  private static final class SumAggregator extends Aggregator<Number, Number> {
+
+    private static final double TWO_POW_63 = 9.223372036854775807E18;
+
+    private long integralTotal;
+
+    /**
+     * The part of the integral sum which overflowed the long, zero while it fits
+     */
+    private BigInteger integralOverflow = BigInteger.ZERO;
+
+    private double fractionalTotal;
+
+    private double compensation;
+
+    private int fractionalCount;
+
+    SumAggregator(Func1<DataSnapshot, ? extends Number> extractor) {
+      super(extractor);
+    }
+
+    @Override void added(String key, Number value) {
+      if (isIntegral(value)) {
+        addIntegral(value.longValue());
+      } else {
+        fractionalCount++;
+        addFractional(value.doubleValue());
+      }
+    }
+
+    @Override void removed(String key, Number value) {
+      if (isIntegral(value)) {
+        long longValue = value.longValue();
+        if (longValue == Long.MIN_VALUE) {
+          // can't be negated in a long
+          addIntegral(Long.MAX_VALUE);
+          addIntegral(1);
+        } else {
+          addIntegral(-longValue);
+        }
+      } else if (--fractionalCount == 0) {
+        // no rounding error survives the last fractional value
+        fractionalTotal = 0;
+        compensation = 0;
+      } else {
+        addFractional(-value.doubleValue());
+      }
+    }
+
+    @Override Number result() {
+      boolean overflowed = integralOverflow.signum() != 0;
+      if (fractionalCount == 0) {
+        return overflowed ? integralOverflow.add(BigInteger.valueOf(integralTotal))
+            : (Number) integralTotal;
+      }
+      double integral = overflowed
+          ? integralOverflow.add(BigInteger.valueOf(integralTotal)).doubleValue()
+          : integralTotal;
+      return integral + (fractionalTotal + compensation);
+    }
+
+    /**
+     * Adds to the integral sum, checking for overflow by hand as
+     * {@code Math.addExact} needs Java 8
+     */
+    private void addIntegral(long value) {
+      long sum = integralTotal + value;
+      if (((integralTotal ^ sum) & (value ^ sum)) < 0) {
+        integralOverflow = integralOverflow.add(BigInteger.valueOf(integralTotal))
+            .add(BigInteger.valueOf(value));
+        integralTotal = 0;
+      } else {
+        integralTotal = sum;
+      }
+      if (integralOverflow.signum() != 0) {
+        // move the sum back into the long once it fits again
+        BigInteger total = integralOverflow.add(BigInteger.valueOf(integralTotal));
+        if (total.bitLength() < 64) {
+          integralTotal = total.longValue();
+          integralOverflow = BigInteger.ZERO;
+        }
+      }
+    }
+
+    /**
+     * Neumaier's variant of Kahan summation, which keeps the low order bits lost by
+     * every addition in a separate compensation term
+     */
+    private void addFractional(double value) {
+      double sum = fractionalTotal + value;
+      if (Math.abs(fractionalTotal) >= Math.abs(value)) {
+        compensation += (fractionalTotal - sum) + value;
+      } else {
+        compensation += (value - sum) + fractionalTotal;
+      }
+      fractionalTotal = sum;
+    }
+
+    private static boolean isIntegral(Number value) {
+      if (value instanceof Long || value instanceof Integer || value instanceof Short
+          || value instanceof Byte) {
+        return true;
+      }
+      double d = value.doubleValue();
+      return d == Math.rint(d) && Math.abs(d) < TWO_POW_63;
+    }
+  }
+
+  private static final class ExtremumAggregator<V> extends Aggregator<V, V> {
+
+    /**
+     * Sorted multiset of the values, mapping every distinct value to its multiplicity
+     */
+    private final TreeMap<V, Integer> counts;
+
+    private final boolean min;
+
+    ExtremumAggregator(Func1<DataSnapshot, ? extends V> extractor,
+        Comparator<? super V> comparator, boolean min) {
+      super(extractor);
+      this.counts = new TreeMap<>(comparator);
+      this.min = min;
+    }
+
+    @Override void added(String key, V value) {
+      Integer count = counts.get(value);
+      counts.put(value, count == null ? 1 : count + 1);
+    }
+
+    @Override void removed(String key, V value) {
+      int count = counts.get(value);
+      if (count == 1) {
+        counts.remove(value);
+      } else {
+        counts.put(value, count - 1);
+      }
+    }
+
+    @Override V result() {
+      if (counts.isEmpty()) {
+        return null;
+      }
+      return min ? counts.firstKey() : counts.lastKey();
+    }
+  }
+
+  private static final class TopAggregator<V> extends Aggregator<V, List<KeyedValue<V>>> {
+
+    private final int n;
+
+    private final TreeSet<KeyedValue<V>> ranking;
+
+    TopAggregator(int n, Func1<DataSnapshot, ? extends V> extractor,
+        final Comparator<? super V> comparator) {
+      super(extractor);
+      this.n = n;
+      this.ranking = new TreeSet<>(new Comparator<KeyedValue<V>>() {
+        @Override public int compare(KeyedValue<V> lhs, KeyedValue<V> rhs) {
+          int result = comparator.compare(lhs.getValue(), rhs.getValue());
+          return result != 0 ? result : lhs.getKey().compareTo(rhs.getKey());
+        }
+      });
+    }
+
+    @Override void added(String key, V value) {
+      ranking.add(new KeyedValue<>(key, value));
+    }
+
+    @Override void removed(String key, V value) {
+      ranking.remove(new KeyedValue<>(key, value));
+    }
+
+    @Override List<KeyedValue<V>> result() {
+      List<KeyedValue<V>> result = new ArrayList<>(Math.min(n, ranking.size()));
+      Iterator<KeyedValue<V>> iterator = ranking.iterator();
+      while (iterator.hasNext() && result.size() < n) {
+        result.add(iterator.next());
+      }
+      return Collections.unmodifiableList(result);
+    }
+  }
+}
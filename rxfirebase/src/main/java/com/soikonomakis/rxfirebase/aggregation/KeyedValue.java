@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase.aggregation;
+
+/**
+ * An immutable pair of a child key and the value extracted from it
+ */
+public final class KeyedValue<V> {
+
+  private final String key;
+
+  private final V value;
+
+  public KeyedValue(String key, V value) {
+    this.key = key;
+    this.value = value;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public V getValue() {
+    return value;
+  }
+
+  @Override public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof KeyedValue)) {
+      return false;
+    }
+    KeyedValue<?> other = (KeyedValue<?>) o;
+    return key.equals(other.key) && (value == null ? other.value == null
+        : value.equals(other.value));
+  }
+
+  @Override public int hashCode() {
+    return 31 * key.hashCode() + (value == null ? 0 : value.hashCode());
+  }
+
+  @Override public String toString() {
+    return "KeyedValue{key=" + key + ", value=" + value + "}";
+  }
+}
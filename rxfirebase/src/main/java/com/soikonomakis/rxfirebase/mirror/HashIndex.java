@@ -0,0 +1,60 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase.mirror;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import rx.Observable;
+import rx.functions.Func0;
+import rx.functions.Func1;
+
+/**
+ * A hash based secondary index which answers equality lookups in O(1)
+ */
+public final class HashIndex<T, K> extends Index<T, K> {
+
+  private final Map<K, Set<String>> buckets = new HashMap<>();
+
+  HashIndex(MirroredCollection<T> collection, Func1<? super T, ? extends K> field) {
+    super(collection, field);
+  }
+
+  @Override Map<K, Set<String>> buckets() {
+    return buckets;
+  }
+
+  /**
+   * Observes the items whose field equals the given value, in the order they took on
+   * that value
+   */
+  public Observable<List<T>> observeEqualTo(final K value) {
+    if (value == null) {
+      throw new IllegalArgumentException("Items with a null field are not indexed");
+    }
+    return collection.observeQuery(new Func1<T, Boolean>() {
+      @Override public Boolean call(T item) {
+        return value.equals(valueOf(item));
+      }
+    }, new Func0<List<T>>() {
+      @Override public List<T> call() {
+        Set<String> keys = buckets.get(value);
+        return keys == null ? Collections.<T>emptyList() : collection.resolve(keys);
+      }
+    });
+  }
+}
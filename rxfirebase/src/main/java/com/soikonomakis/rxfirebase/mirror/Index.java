@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase.mirror;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import rx.functions.Func1;
+
+/**
+ * A secondary index of a {@link MirroredCollection}, mapping the value of an item
+ * field to the keys of the items which have it. Items whose field is null are not
+ * indexed.
+ */
+public abstract class Index<T, K> {
+
+  final MirroredCollection<T> collection;
+
+  private final Func1<? super T, ? extends K> field;
+
+  Index(MirroredCollection<T> collection, Func1<? super T, ? extends K> field) {
+    this.collection = collection;
+    this.field = field;
+  }
+
+  /**
+   * The buckets of the index, from field value to the keys in the order the items took
+   * on that value
+   */
+  abstract Map<K, Set<String>> buckets();
+
+  final K valueOf(T item) {
+    return field.call(item);
+  }
+
+  final void add(String key, T item) {
+    K value = valueOf(item);
+    if (value == null) {
+      return;
+    }
+    Set<String> keys = buckets().get(value);
+    if (keys == null) {
+      keys = new LinkedHashSet<>();
+      buckets().put(value, keys);
+    }
+    keys.add(key);
+  }
+
+  /**
+   * Moves the key from the bucket of the previous item to the one of the current item.
+   * Either item may be null. A key whose field value did not change keeps its position
+   * in its bucket.
+   */
+  final void update(String key, T previous, T current) {
+    K previousValue = previous == null ? null : valueOf(previous);
+    K currentValue = current == null ? null : valueOf(current);
+    if (previousValue == null ? currentValue == null : previousValue.equals(currentValue)) {
+      return;
+    }
+    if (previous != null) {
+      remove(key, previous);
+    }
+    if (current != null) {
+      add(key, current);
+    }
+  }
+
+  final void remove(String key, T item) {
+    K value = valueOf(item);
+    if (value == null) {
+      return;
+    }
+    Set<String> keys = buckets().get(value);
+    if (keys != null && keys.remove(key) && keys.isEmpty()) {
+      buckets().remove(value);
+    }
+  }
+}
@@ -0,0 +1,294 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase.mirror;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.Query;
+import com.soikonomakis.rxfirebase.FirebaseChildEvent;
+import com.soikonomakis.rxfirebase.RxFirebase;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.subjects.BehaviorSubject;
+import rx.subjects.PublishSubject;
+
+/**
+ * A local mirror of a collection fed by a single child event listener.
+ *
+ * <p>The Realtime Database can order or filter a query by one child only. Instead of
+ * attaching a listener for every way a node has to be looked up, declare the lookups
+ * as secondary indexes on the mirror and query them locally:
+ *
+ * <pre>
+ * MirroredCollection&lt;Task&gt; tasks = new MirroredCollection&lt;&gt;(taskMapper);
+ * HashIndex&lt;Task, String&gt; byOwner = tasks.addHashIndex(ownerField);
+ * SortedIndex&lt;Task, Long&gt; byDueDate = tasks.addSortedIndex(dueDateField);
+ * Subscription subscription = tasks.connect(tasksRef);
+ *
+ * byOwner.observeEqualTo("alice").subscribe(...);
+ * byDueDate.observeRange(today, nextWeek).subscribe(...);
+ * </pre>
+ *
+ * Items are mapped once when their child event arrives, so the mirror does not keep
+ * the {@link DataSnapshot}s alive. A local query re-evaluates only when a change
+ * touches an item it matched before or matches now.
+ *
+ * <p>An error of the listener, e.g. when it is cancelled because the rules no longer let
+ * the user read the collection, ends the connection but not the local queries. They keep
+ * the last mirrored items until the mirror is connected again, and the error is reported
+ * through {@link #observeErrors()}.
+ */
+public final class MirroredCollection<T> {
+
+  private final Func1<DataSnapshot, ? extends T> mapper;
+
+  private final Map<String, T> items = new LinkedHashMap<>();
+
+  private final List<Index<T, ?>> indexes = new CopyOnWriteArrayList<>();
+
+  private final BehaviorSubject<Change<T>> changes =
+      BehaviorSubject.create(Change.<T>reset());
+
+  private final PublishSubject<Throwable> errors = PublishSubject.create();
+
+  /**
+   * The subscriber of the current connection, null before the first one
+   */
+  private Subscriber<FirebaseChildEvent> connection;
+
+  /**
+   * @param mapper maps a child snapshot to the item that is mirrored, a null
+   * result is treated as the child being absent
+   */
+  public MirroredCollection(Func1<DataSnapshot, ? extends T> mapper) {
+    this.mapper = mapper;
+  }
+
+  /**
+   * Declares an index for equality lookups on a field of the items
+   */
+  public <K> HashIndex<T, K> addHashIndex(Func1<? super T, ? extends K> field) {
+    return addIndex(new HashIndex<T, K>(this, field));
+  }
+
+  /**
+   * Declares an index for equality and range lookups on a field of the items
+   */
+  public <K extends Comparable<? super K>> SortedIndex<T, K> addSortedIndex(
+      Func1<? super T, ? extends K> field) {
+    return addIndex(new SortedIndex<T, K>(this, field));
+  }
+
+  private <I extends Index<T, ?>> I addIndex(I index) {
+    synchronized (items) {
+      for (Map.Entry<String, T> entry : items.entrySet()) {
+        index.add(entry.getKey(), entry.getValue());
+      }
+      indexes.add(index);
+    }
+    return index;
+  }
+
+  /**
+   * Starts mirroring the children of the query
+   *
+   * @return the subscription of the underlying listener, unsubscribe it to stop mirroring
+   * @throws IllegalStateException if the mirror is already connected
+   */
+  public Subscription connect(Query ref) {
+    return connect(RxFirebase.getInstance().observeChildEvent(ref));
+  }
+
+  /**
+   * Starts mirroring the given stream of child events. The items mirrored by a previous
+   * connection are dropped first, since the children removed while disconnected are
+   * never reported as such.
+   *
+   * @return the subscription of the underlying stream, unsubscribe it to stop mirroring
+   * @throws IllegalStateException if the mirror is already connected
+   */
+  public Subscription connect(Observable<FirebaseChildEvent> events) {
+    Subscriber<FirebaseChildEvent> subscriber = new Subscriber<FirebaseChildEvent>() {
+      @Override public void onCompleted() {
+      }
+
+      @Override public void onError(Throwable e) {
+        // the local queries outlive the connection, so the error must not end them
+        errors.onNext(e);
+      }
+
+      @Override public void onNext(FirebaseChildEvent firebaseChildEvent) {
+        apply(firebaseChildEvent);
+      }
+    };
+    boolean cleared;
+    synchronized (items) {
+      if (connection != null && !connection.isUnsubscribed()) {
+        throw new IllegalStateException("The collection is already connected");
+      }
+      connection = subscriber;
+      cleared = !items.isEmpty();
+      items.clear();
+      for (Index<T, ?> index : indexes) {
+        index.buckets().clear();
+      }
+    }
+    if (cleared) {
+      changes.onNext(Change.<T>reset());
+    }
+    return events.subscribe(subscriber);
+  }
+
+  /**
+   * Observes the errors which ended a connection of the mirror from now on
+   */
+  public Observable<Throwable> observeErrors() {
+    return errors.asObservable();
+  }
+
+  /**
+   * Returns the mirrored item of the given child key, or null
+   */
+  public T get(String key) {
+    synchronized (items) {
+      return items.get(key);
+    }
+  }
+
+  public int size() {
+    synchronized (items) {
+      return items.size();
+    }
+  }
+
+  /**
+   * Observes every mirrored item in the order the children were added
+   */
+  public Observable<List<T>> observeAll() {
+    return observeQuery(new Func1<T, Boolean>() {
+      @Override public Boolean call(T item) {
+        return true;
+      }
+    }, new Func0<List<T>>() {
+      @Override public List<T> call() {
+        return copy(items.values());
+      }
+    });
+  }
+
+  private void apply(FirebaseChildEvent firebaseChildEvent) {
+    String key = firebaseChildEvent.getDataSnapshot().getKey();
+    T current = null;
+    switch (firebaseChildEvent.getEventType()) {
+      case ADDED:
+      case CHANGED:
+        current = mapper.call(firebaseChildEvent.getDataSnapshot());
+        break;
+      case REMOVED:
+        break;
+      default:
+        // a move changes the query order only, which the mirror does not expose
+        return;
+    }
+    T previous;
+    synchronized (items) {
+      previous = current == null ? items.remove(key) : items.put(key, current);
+      for (Index<T, ?> index : indexes) {
+        index.update(key, previous, current);
+      }
+    }
+    if (previous != null || current != null) {
+      changes.onNext(new Change<>(previous, current));
+    }
+  }
+
+  /**
+   * Creates a live local query. The query is evaluated on subscription and again
+   * after every change whose previous or current item satisfies the matcher.
+   */
+  Observable<List<T>> observeQuery(final Func1<? super T, Boolean> matcher,
+      final Func0<List<T>> query) {
+    return Observable.defer(new Func0<Observable<List<T>>>() {
+      @Override public Observable<List<T>> call() {
+        // the latest change is replayed on subscription, which triggers the first evaluation
+        final boolean[] first = { true };
+        return changes.filter(new Func1<Change<T>, Boolean>() {
+          @Override public Boolean call(Change<T> change) {
+            if (first[0] || change.isReset()) {
+              first[0] = false;
+              return true;
+            }
+            return (change.previous != null && matcher.call(change.previous))
+                || (change.current != null && matcher.call(change.current));
+          }
+        }).map(new Func1<Change<T>, List<T>>() {
+          @Override public List<T> call(Change<T> change) {
+            synchronized (items) {
+              return query.call();
+            }
+          }
+        }).distinctUntilChanged();
+      }
+    });
+  }
+
+  /**
+   * Resolves child keys to an immutable list of items. Callers hold the lock.
+   */
+  List<T> resolve(Collection<String> keys) {
+    List<T> result = new ArrayList<>(keys.size());
+    for (String key : keys) {
+      result.add(items.get(key));
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  private List<T> copy(Collection<T> values) {
+    return Collections.unmodifiableList(new ArrayList<>(values));
+  }
+
+  private static final class Change<T> {
+
+    final T previous;
+
+    final T current;
+
+    Change(T previous, T current) {
+      this.previous = previous;
+      this.current = current;
+    }
+
+    /**
+     * A change of the whole collection, which every query re-evaluates on
+     */
+    static <T> Change<T> reset() {
+      return new Change<T>(null, null);
+    }
+
+    boolean isReset() {
+      return previous == null && current == null;
+    }
+  }
+}
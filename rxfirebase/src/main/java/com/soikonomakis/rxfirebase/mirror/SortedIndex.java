@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase.mirror;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import rx.Observable;
+import rx.functions.Func0;
+import rx.functions.Func1;
+
+/**
+ * A tree based secondary index which answers equality and range lookups in
+ * O(log n + k), k being the number of matching items
+ */
+public final class SortedIndex<T, K extends Comparable<? super K>> extends Index<T, K> {
+
+  private final TreeMap<K, Set<String>> buckets = new TreeMap<>();
+
+  SortedIndex(MirroredCollection<T> collection, Func1<? super T, ? extends K> field) {
+    super(collection, field);
+  }
+
+  @Override Map<K, Set<String>> buckets() {
+    return buckets;
+  }
+
+  /**
+   * Observes the items whose field equals the given value, in the order they took on
+   * that value
+   */
+  public Observable<List<T>> observeEqualTo(K value) {
+    if (value == null) {
+      throw new IllegalArgumentException("Items with a null field are not indexed");
+    }
+    return observeRange(value, value);
+  }
+
+  /**
+   * Observes the items whose field lies within the inclusive range, ordered by the
+   * field. A null bound leaves that side of the range open.
+   */
+  public Observable<List<T>> observeRange(final K from, final K to) {
+    return collection.observeQuery(new Func1<T, Boolean>() {
+      @Override public Boolean call(T item) {
+        K value = valueOf(item);
+        return value != null
+            && (from == null || value.compareTo(from) >= 0)
+            && (to == null || value.compareTo(to) <= 0);
+      }
+    }, new Func0<List<T>>() {
+      @Override public List<T> call() {
+        return collection.resolve(keysIn(range(from, to)));
+      }
+    });
+  }
+
+  /**
+   * Observes the first n items ordered by the field
+   */
+  public Observable<List<T>> observeFirst(final int n) {
+    return collection.observeQuery(new Func1<T, Boolean>() {
+      @Override public Boolean call(T item) {
+        // any change may shift an item in or out of the window
+        return valueOf(item) != null;
+      }
+    }, new Func0<List<T>>() {
+      @Override public List<T> call() {
+        List<String> keys = new ArrayList<>(n);
+        for (Set<String> bucket : buckets.values()) {
+          for (String key : bucket) {
+            if (keys.size() == n) {
+              return collection.resolve(keys);
+            }
+            keys.add(key);
+          }
+        }
+        return collection.resolve(keys);
+      }
+    });
+  }
+
+  private NavigableMap<K, Set<String>> range(K from, K to) {
+    if (from == null && to == null) {
+      return buckets;
+    } else if (from == null) {
+      return buckets.headMap(to, true);
+    } else if (to == null) {
+      return buckets.tailMap(from, true);
+    }
+    return from.compareTo(to) > 0 ? new TreeMap<K, Set<String>>()
+        : buckets.subMap(from, true, to, true);
+  }
+
+  private List<String> keysIn(NavigableMap<K, Set<String>> range) {
+    List<String> keys = new ArrayList<>();
+    for (Set<String> bucket : range.values()) {
+      keys.addAll(bucket);
+    }
+    return keys;
+  }
+}
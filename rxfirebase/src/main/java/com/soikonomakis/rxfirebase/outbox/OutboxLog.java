@@ -0,0 +1,411 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase.outbox;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The append-only file behind a {@link WriteOutbox}.
+ *
+ * <p>Every record is framed as its length, a CRC32 of the payload and the payload, so
+ * a record torn by the process being killed mid-append is detected and dropped
+ * together with anything after it. A record is either a write of a value to a path or
+ * the acknowledgement of such a write. Values are encoded in a compact binary form of
+ * the JSON types the database stores.
+ */
+final class OutboxLog implements Closeable {
+
+  static final byte PUT = 1;
+
+  static final byte ACK = 2;
+
+  private static final byte TYPE_NULL = 0;
+
+  private static final byte TYPE_TRUE = 1;
+
+  private static final byte TYPE_FALSE = 2;
+
+  private static final byte TYPE_LONG = 3;
+
+  private static final byte TYPE_DOUBLE = 4;
+
+  private static final byte TYPE_STRING = 5;
+
+  private static final byte TYPE_MAP = 6;
+
+  private static final byte TYPE_LIST = 7;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final File file;
+
+  private FileOutputStream output;
+
+  private long bytes;
+
+  private int records;
+
+  /**
+   * The rewrite in progress, null when none is
+   */
+  private Rewrite rewrite;
+
+  OutboxLog(File file) {
+    this.file = file;
+  }
+
+  /**
+   * A decoded record of the log
+   */
+  static final class Record {
+
+    final byte type;
+
+    final long seq;
+
+    final String path;
+
+    final Object value;
+
+    /**
+     * The size of the framed record in the log
+     */
+    final int size;
+
+    Record(byte type, long seq, String path, Object value, int size) {
+      this.type = type;
+      this.seq = seq;
+      this.path = path;
+      this.value = value;
+      this.size = size;
+    }
+  }
+
+  /**
+   * Reads every intact record of the log, truncates a torn tail and opens the log for
+   * appending
+   */
+  List<Record> open() throws IOException {
+    List<Record> result = new ArrayList<>();
+    long intactBytes = 0;
+    if (file.exists()) {
+      DataInputStream input =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        while (true) {
+          Record record = readRecord(input, file.length() - intactBytes);
+          if (record == null) {
+            break;
+          }
+          result.add(record);
+          intactBytes += record.size;
+        }
+      } finally {
+        input.close();
+      }
+    }
+    if (file.exists() && file.length() != intactBytes) {
+      truncate(intactBytes);
+    }
+    output = new FileOutputStream(file, true);
+    bytes = intactBytes;
+    records = result.size();
+    return result;
+  }
+
+  void appendPut(long seq, String path, Object value) throws IOException {
+    append(encode(PUT, seq, path, value));
+  }
+
+  void appendAck(long seq, String path) throws IOException {
+    append(encode(ACK, seq, path, null));
+  }
+
+  /**
+   * Starts replacing the log with the given live writes, in order. The records appended
+   * from now on are carried over to the new log when the rewrite is committed.
+   */
+  Rewrite startRewrite(List<Record> live) {
+    if (rewrite != null) {
+      throw new IllegalStateException("A rewrite of " + file + " is already in progress");
+    }
+    rewrite = new Rewrite(live);
+    return rewrite;
+  }
+
+  long getBytes() {
+    return bytes;
+  }
+
+  int getRecords() {
+    return records;
+  }
+
+  @Override public void close() throws IOException {
+    if (output != null) {
+      output.close();
+    }
+  }
+
+  private void append(byte[] frame) throws IOException {
+    output.write(frame);
+    output.flush();
+    bytes += frame.length;
+    records++;
+    if (rewrite != null) {
+      rewrite.appended.add(frame);
+    }
+  }
+
+  /**
+   * A replacement of the log which is written next to it and renamed over it, so a crash
+   * leaves either of them intact.
+   *
+   * <p>Only {@link #write()} touches no state of the log, so it is the one step which may
+   * run while the log is appended to. The other steps must not run concurrently with any
+   * other call to the log.
+   */
+  final class Rewrite {
+
+    private final List<Record> live;
+
+    private final File compacted = new File(file.getPath() + ".compact");
+
+    private final List<byte[]> appended = new ArrayList<>();
+
+    private long compactedBytes;
+
+    private Rewrite(List<Record> live) {
+      this.live = live;
+    }
+
+    /**
+     * Writes the live records to the new log and syncs it
+     */
+    void write() throws IOException {
+      FileOutputStream compactedOutput = new FileOutputStream(compacted);
+      long written = 0;
+      try {
+        for (Record record : live) {
+          byte[] frame = encode(PUT, record.seq, record.path, record.value);
+          compactedOutput.write(frame);
+          written += frame.length;
+        }
+        compactedOutput.getFD().sync();
+      } finally {
+        compactedOutput.close();
+      }
+      compactedBytes = written;
+    }
+
+    /**
+     * Appends the records appended to the log since the rewrite started to the new log
+     * and replaces the log with it
+     */
+    void commit() throws IOException {
+      if (rewrite != this) {
+        throw new IllegalStateException("The rewrite of " + file + " is not in progress");
+      }
+      rewrite = null;
+      long newBytes = compactedBytes;
+      FileOutputStream compactedOutput = new FileOutputStream(compacted, true);
+      try {
+        for (byte[] frame : appended) {
+          compactedOutput.write(frame);
+          newBytes += frame.length;
+        }
+        compactedOutput.getFD().sync();
+      } finally {
+        compactedOutput.close();
+      }
+      output.close();
+      if (!compacted.renameTo(file)) {
+        output = new FileOutputStream(file, true);
+        compacted.delete();
+        throw new IOException("Could not replace " + file + " with its compacted copy");
+      }
+      output = new FileOutputStream(file, true);
+      bytes = newBytes;
+      records = live.size() + appended.size();
+    }
+
+    /**
+     * Gives up the rewrite, leaving the log as it is
+     */
+    void abort() {
+      if (rewrite == this) {
+        rewrite = null;
+      }
+      compacted.delete();
+    }
+  }
+
+  private void truncate(long length) throws IOException {
+    FileOutputStream truncating = new FileOutputStream(file, true);
+    try {
+      truncating.getChannel().truncate(length);
+    } finally {
+      truncating.close();
+    }
+  }
+
+  private static byte[] encode(byte type, long seq, String path, Object value)
+      throws IOException {
+    ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+    DataOutputStream payload = new DataOutputStream(payloadBytes);
+    payload.writeByte(type);
+    payload.writeLong(seq);
+    writeString(payload, path);
+    if (type == PUT) {
+      writeValue(payload, value);
+    }
+    byte[] body = payloadBytes.toByteArray();
+    CRC32 crc = new CRC32();
+    crc.update(body);
+
+    ByteArrayOutputStream frameBytes = new ByteArrayOutputStream(body.length + 8);
+    DataOutputStream frame = new DataOutputStream(frameBytes);
+    frame.writeInt(body.length);
+    frame.writeInt((int) crc.getValue());
+    frame.write(body);
+    return frameBytes.toByteArray();
+  }
+
+  /**
+   * Returns the next record, or null at the end of the log or at a torn record
+   */
+  private static Record readRecord(DataInputStream input, long remaining) throws IOException {
+    try {
+      int length = input.readInt();
+      int checksum = input.readInt();
+      if (length < 0 || length > remaining - 8) {
+        return null;
+      }
+      byte[] body = new byte[length];
+      input.readFully(body);
+      CRC32 crc = new CRC32();
+      crc.update(body);
+      if ((int) crc.getValue() != checksum) {
+        return null;
+      }
+      DataInputStream payload = new DataInputStream(new ByteArrayInputStream(body));
+      byte type = payload.readByte();
+      long seq = payload.readLong();
+      String path = readString(payload);
+      Object value = type == PUT ? readValue(payload) : null;
+      return new Record(type, seq, path, value, length + 8);
+    } catch (EOFException e) {
+      return null;
+    }
+  }
+
+  private static void writeValue(DataOutputStream output, Object value) throws IOException {
+    if (value == null) {
+      output.writeByte(TYPE_NULL);
+    } else if (value instanceof Boolean) {
+      output.writeByte((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+    } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+        || value instanceof Byte) {
+      output.writeByte(TYPE_LONG);
+      output.writeLong(((Number) value).longValue());
+    } else if (value instanceof Double || value instanceof Float) {
+      output.writeByte(TYPE_DOUBLE);
+      output.writeDouble(((Number) value).doubleValue());
+    } else if (value instanceof String) {
+      output.writeByte(TYPE_STRING);
+      writeString(output, (String) value);
+    } else if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      output.writeByte(TYPE_MAP);
+      output.writeInt(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        writeString(output, String.valueOf(entry.getKey()));
+        writeValue(output, entry.getValue());
+      }
+    } else if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      output.writeByte(TYPE_LIST);
+      output.writeInt(list.size());
+      for (Object item : list) {
+        writeValue(output, item);
+      }
+    } else {
+      throw new IllegalArgumentException("Only JSON compatible values can be queued but got "
+          + value.getClass().getName());
+    }
+  }
+
+  private static Object readValue(DataInputStream input) throws IOException {
+    byte type = input.readByte();
+    switch (type) {
+      case TYPE_NULL:
+        return null;
+      case TYPE_TRUE:
+        return Boolean.TRUE;
+      case TYPE_FALSE:
+        return Boolean.FALSE;
+      case TYPE_LONG:
+        return input.readLong();
+      case TYPE_DOUBLE:
+        return input.readDouble();
+      case TYPE_STRING:
+        return readString(input);
+      case TYPE_MAP:
+        int size = input.readInt();
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+          String key = readString(input);
+          map.put(key, readValue(input));
+        }
+        return map;
+      case TYPE_LIST:
+        int length = input.readInt();
+        List<Object> list = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+          list.add(readValue(input));
+        }
+        return list;
+      default:
+        throw new IOException("Unknown value type " + type);
+    }
+  }
+
+  private static void writeString(DataOutputStream output, String value) throws IOException {
+    byte[] encoded = value.getBytes(UTF_8);
+    output.writeInt(encoded.length);
+    output.write(encoded);
+  }
+
+  private static String readString(DataInputStream input) throws IOException {
+    byte[] encoded = new byte[input.readInt()];
+    input.readFully(encoded);
+    return new String(encoded, UTF_8);
+  }
+}
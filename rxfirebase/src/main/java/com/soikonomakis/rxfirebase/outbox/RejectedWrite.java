@@ -0,0 +1,54 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase.outbox;
+
+import com.soikonomakis.rxfirebase.exceptions.FirebaseDatabaseError;
+
+/**
+ * A queued write which the server rejected, e.g. by its security or validation rules,
+ * and which was dropped from the {@link WriteOutbox}
+ */
+public final class RejectedWrite {
+
+  private final String path;
+
+  private final Object value;
+
+  private final FirebaseDatabaseError error;
+
+  RejectedWrite(String path, Object value, FirebaseDatabaseError error) {
+    this.path = path;
+    this.value = value;
+    this.error = error;
+  }
+
+  /**
+   * The path of the write, relative to the root reference of the outbox
+   */
+  public String getPath() {
+    return path;
+  }
+
+  public Object getValue() {
+    return value;
+  }
+
+  public FirebaseDatabaseError getError() {
+    return error;
+  }
+
+  @Override public String toString() {
+    return "RejectedWrite{path=" + path + ", value=" + value + ", error=" + error + "}";
+  }
+}
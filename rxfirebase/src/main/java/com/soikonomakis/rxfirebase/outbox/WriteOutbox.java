@@ -0,0 +1,656 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase.outbox;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseException;
+import com.google.firebase.database.DatabaseReference;
+import com.soikonomakis.rxfirebase.RxFirebase;
+import com.soikonomakis.rxfirebase.exceptions.FirebaseDatabaseError;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+
+/**
+ * A persistent outbox of writes which survives the app being killed while offline.
+ *
+ * <p>Writes are appended to a log file and kept in memory compacted: a write to a path
+ * supersedes every pending write to the same path or below it, and a write below a
+ * pending path is merged into the pending value. The log itself is compacted on a
+ * background scheduler once superseded records make up most of it.
+ *
+ * <p>Once the database is connected, the pending writes are replayed in the order they
+ * were last written, as batched multi-path updates, and removed from the log when the
+ * server acknowledged them. The bytes sent and the replay time therefore scale with the
+ * final state of the data rather than with the history of writes.
+ *
+ * <p>When the server rejects a batch, e.g. because a write breaks the security or
+ * validation rules, its writes are retried one at a time and the offending ones are
+ * dropped and reported through {@link #observeRejected()}, so a single bad write does
+ * not hold back the rest of the outbox. Any other failure is retried with an
+ * exponential backoff, or right away once the database reconnects.
+ *
+ * <pre>
+ * WriteOutbox outbox = new WriteOutbox(new File(context.getFilesDir(), "outbox"), rootRef);
+ * Subscription subscription = outbox.start();
+ * outbox.set("users/alice/status", "away");
+ * </pre>
+ *
+ * Values must be JSON compatible: null, booleans, numbers, strings, maps and lists. Paths
+ * and keys must be valid database keys, as they would otherwise stall the replay.
+ */
+public class WriteOutbox {
+
+  static final String CONNECTED = ".info/connected";
+
+  private static final int DEFAULT_MAX_BATCH = 500;
+
+  private static final int MIN_RECORDS_TO_COMPACT = 64;
+
+  static final long MIN_RETRY_DELAY_MILLIS = 1000;
+
+  static final long MAX_RETRY_DELAY_MILLIS = 60000;
+
+  /**
+   * The characters the database does not allow in keys, besides the control characters
+   */
+  private static final String FORBIDDEN_KEY_CHARS = ".#$[]";
+
+  private final RxFirebase rxFirebase = RxFirebase.getInstance();
+
+  private final DatabaseReference root;
+
+  private final OutboxLog log;
+
+  private final int maxBatch;
+
+  private final Scheduler scheduler;
+
+  private final PublishSubject<RejectedWrite> rejected = PublishSubject.create();
+
+  /**
+   * Pending writes by path, sorted so the writes below a path form a contiguous range
+   */
+  private final TreeMap<String, Pending> byPath = new TreeMap<>();
+
+  /**
+   * Pending paths by the sequence number of their last write
+   */
+  private final TreeMap<Long, String> bySeq = new TreeMap<>();
+
+  private long lastSeq;
+
+  private boolean connected;
+
+  private boolean flushing;
+
+  /**
+   * The scheduled compaction of the log, null when none is scheduled
+   */
+  private Scheduler.Worker compaction;
+
+  private boolean closed;
+
+  private boolean compacting;
+
+  private long retryDelayMillis;
+
+  /**
+   * The scheduled retry of a failed replay, null when none is scheduled
+   */
+  private Scheduler.Worker retry;
+
+  /**
+   * Opens the outbox stored in the given file, replaying the writes which were pending
+   * when the app last stopped
+   *
+   * @param root the reference the paths of the writes are relative to
+   */
+  public WriteOutbox(File file, DatabaseReference root) throws IOException {
+    this(file, root, DEFAULT_MAX_BATCH, Schedulers.io());
+  }
+
+  WriteOutbox(File file, DatabaseReference root, int maxBatch, Scheduler scheduler)
+      throws IOException {
+    this.root = root;
+    this.log = new OutboxLog(file);
+    this.maxBatch = maxBatch;
+    this.scheduler = scheduler;
+    for (OutboxLog.Record record : log.open()) {
+      if (record.type == OutboxLog.PUT) {
+        apply(record.seq, record.path, record.value);
+      } else {
+        acknowledge(record.seq, record.path);
+      }
+      lastSeq = Math.max(lastSeq, record.seq);
+    }
+    scheduleCompactionIfNeeded();
+  }
+
+  /**
+   * Queues a write of the value to the path, relative to the root reference. A null
+   * value deletes the path.
+   *
+   * @throws IllegalArgumentException when the path or a key of the value is not a valid
+   * database key
+   */
+  public void set(String path, Object value) throws IOException {
+    String normalized = normalize(path);
+    validateKeys(value);
+    synchronized (this) {
+      long seq = ++lastSeq;
+      log.appendPut(seq, normalized, value);
+      apply(seq, normalized, copy(value));
+      scheduleCompactionIfNeeded();
+    }
+    flushIfConnected();
+  }
+
+  /**
+   * Watches the connection state and replays the pending writes whenever the database
+   * connects
+   *
+   * @return unsubscribe it to stop replaying
+   */
+  public Subscription start() {
+    return rxFirebase.observeValueEvent(root.getRoot().child(CONNECTED))
+        .subscribe(new Action1<DataSnapshot>() {
+          @Override public void call(DataSnapshot dataSnapshot) {
+            synchronized (WriteOutbox.this) {
+              connected = Boolean.TRUE.equals(dataSnapshot.getValue());
+              if (connected) {
+                // a fresh connection is worth a retry right away
+                cancelRetry();
+                retryDelayMillis = 0;
+              }
+            }
+            flushIfConnected();
+          }
+        }, new Action1<Throwable>() {
+          @Override public void call(Throwable throwable) {
+            synchronized (WriteOutbox.this) {
+              connected = false;
+            }
+          }
+        });
+  }
+
+  /**
+   * Replays the pending writes as batched multi-path updates. Emits the number of writes
+   * of every acknowledged batch and completes once the outbox is empty. Completes right
+   * away when another replay is running.
+   */
+  public Observable<Integer> flush() {
+    return Observable.create(new Observable.OnSubscribe<Integer>() {
+      @Override public void call(Subscriber<? super Integer> subscriber) {
+        synchronized (WriteOutbox.this) {
+          if (flushing) {
+            subscriber.onCompleted();
+            return;
+          }
+          flushing = true;
+        }
+        flushBatch(subscriber, 0);
+      }
+    });
+  }
+
+  /**
+   * Observes the writes which the server rejected and which were dropped from the
+   * outbox from now on
+   */
+  public Observable<RejectedWrite> observeRejected() {
+    return rejected.asObservable();
+  }
+
+  public synchronized int getPendingCount() {
+    return byPath.size();
+  }
+
+  /**
+   * The size of the log file in bytes
+   */
+  public synchronized long getLogBytes() {
+    return log.getBytes();
+  }
+
+  /**
+   * Rewrites the log with the pending writes only. The pending writes are copied to the
+   * new log without holding the lock, so writes and acknowledgements are not held up,
+   * and whatever was logged in the meantime is carried over before the new log
+   * replaces the old one. Does nothing once the outbox is closed or while another
+   * compaction runs.
+   */
+  public void compact() throws IOException {
+    OutboxLog.Rewrite rewrite;
+    synchronized (this) {
+      if (closed || compacting) {
+        return;
+      }
+      // pending values are never changed in place, so they can be shared with the rewrite
+      List<OutboxLog.Record> live = new ArrayList<>(bySeq.size());
+      for (Map.Entry<Long, String> entry : bySeq.entrySet()) {
+        Pending pending = byPath.get(entry.getValue());
+        live.add(new OutboxLog.Record(OutboxLog.PUT, entry.getKey(), entry.getValue(),
+            pending.value, 0));
+      }
+      rewrite = log.startRewrite(live);
+      compacting = true;
+    }
+    boolean committed = false;
+    try {
+      rewrite.write();
+      synchronized (this) {
+        if (!closed) {
+          rewrite.commit();
+          committed = true;
+        }
+      }
+    } finally {
+      synchronized (this) {
+        compacting = false;
+        if (!committed) {
+          rewrite.abort();
+        }
+      }
+    }
+  }
+
+  /**
+   * Closes the log and cancels the scheduled compaction and retry
+   */
+  public synchronized void close() throws IOException {
+    closed = true;
+    if (compaction != null) {
+      compaction.unsubscribe();
+      compaction = null;
+    }
+    cancelRetry();
+    log.close();
+  }
+
+  private void flushIfConnected() {
+    boolean shouldFlush;
+    synchronized (this) {
+      shouldFlush = connected && !closed && !flushing && retry == null && !byPath.isEmpty();
+    }
+    if (shouldFlush) {
+      flush().subscribe(new Action1<Integer>() {
+        @Override public void call(Integer count) {
+          synchronized (WriteOutbox.this) {
+            retryDelayMillis = 0;
+          }
+        }
+      }, new Action1<Throwable>() {
+        @Override public void call(Throwable throwable) {
+          scheduleRetry();
+        }
+      });
+    }
+  }
+
+  /**
+   * Sends the next batch of pending writes
+   *
+   * @param isolated the number of writes still to be sent one at a time, after their
+   * batch was rejected
+   */
+  private void flushBatch(final Subscriber<? super Integer> subscriber, final int isolated) {
+    final Map<String, Long> batch = new LinkedHashMap<>();
+    Map<String, Object> update = new HashMap<>();
+    int batchSize = isolated > 0 ? 1 : maxBatch;
+    synchronized (this) {
+      for (Map.Entry<Long, String> entry : bySeq.entrySet()) {
+        if (batch.size() == batchSize) {
+          break;
+        }
+        batch.put(entry.getValue(), entry.getKey());
+        update.put(entry.getValue(), copy(byPath.get(entry.getValue()).value));
+      }
+      if (batch.isEmpty() || subscriber.isUnsubscribed()) {
+        flushing = false;
+        subscriber.onCompleted();
+        return;
+      }
+    }
+    try {
+      root.updateChildren(update, new DatabaseReference.CompletionListener() {
+        @Override public void onComplete(DatabaseError error, DatabaseReference ref) {
+          if (error != null && !isRejection(error)) {
+            fail(subscriber, toException(error));
+            return;
+          }
+          onBatchCompleted(subscriber, batch, isolated,
+              error == null ? null : toException(error));
+        }
+      });
+    } catch (DatabaseException e) {
+      // the client refused the batch before sending it, e.g. for a key it does not allow
+      FirebaseDatabaseError error = new FirebaseDatabaseError(DatabaseError.UNKNOWN_ERROR,
+          e.getMessage());
+      error.initCause(e);
+      onBatchCompleted(subscriber, batch, isolated, error);
+    } catch (RuntimeException e) {
+      fail(subscriber, e);
+    }
+  }
+
+  /**
+   * Removes the writes of a batch the server acknowledged or rejected and sends the next
+   * one
+   *
+   * @param rejection why the batch was rejected, null when it was acknowledged
+   */
+  private void onBatchCompleted(Subscriber<? super Integer> subscriber,
+      Map<String, Long> batch, int isolated, FirebaseDatabaseError rejection) {
+    if (rejection != null && batch.size() > 1) {
+      // find the offending writes by sending the batch again one write at a time
+      flushBatch(subscriber, batch.size());
+      return;
+    }
+    RejectedWrite rejectedWrite = null;
+    try {
+      synchronized (this) {
+        for (Map.Entry<String, Long> entry : batch.entrySet()) {
+          Pending pending = byPath.get(entry.getKey());
+          if (acknowledge(entry.getValue(), entry.getKey())) {
+            log.appendAck(entry.getValue(), entry.getKey());
+            if (rejection != null) {
+              rejectedWrite = new RejectedWrite(entry.getKey(), pending.value, rejection);
+            }
+          }
+        }
+        scheduleCompactionIfNeeded();
+      }
+    } catch (IOException e) {
+      fail(subscriber, e);
+      return;
+    }
+    if (rejectedWrite != null) {
+      rejected.onNext(rejectedWrite);
+    } else if (rejection == null) {
+      subscriber.onNext(batch.size());
+    }
+    flushBatch(subscriber, Math.max(0, isolated - 1));
+  }
+
+  private void fail(Subscriber<? super Integer> subscriber, Throwable throwable) {
+    synchronized (this) {
+      flushing = false;
+    }
+    subscriber.onError(throwable);
+  }
+
+  /**
+   * Whether the server refused the writes themselves, in which case sending them again
+   * can't succeed
+   */
+  private static boolean isRejection(DatabaseError error) {
+    return error.getCode() == DatabaseError.PERMISSION_DENIED;
+  }
+
+  private static FirebaseDatabaseError toException(DatabaseError error) {
+    return new FirebaseDatabaseError(error.getCode(), error.getMessage() + error.getDetails());
+  }
+
+  /**
+   * Retries a failed replay after a delay which doubles with every consecutive failure
+   */
+  private synchronized void scheduleRetry() {
+    if (closed || retry != null) {
+      return;
+    }
+    retryDelayMillis = retryDelayMillis == 0 ? MIN_RETRY_DELAY_MILLIS
+        : Math.min(2 * retryDelayMillis, MAX_RETRY_DELAY_MILLIS);
+    final Scheduler.Worker worker = scheduler.createWorker();
+    retry = worker;
+    worker.schedule(new Action0() {
+      @Override public void call() {
+        synchronized (WriteOutbox.this) {
+          if (retry != worker) {
+            return;
+          }
+          retry = null;
+        }
+        worker.unsubscribe();
+        flushIfConnected();
+      }
+    }, retryDelayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Cancels the scheduled retry, if any. Callers hold the lock.
+   */
+  private void cancelRetry() {
+    if (retry != null) {
+      retry.unsubscribe();
+      retry = null;
+    }
+  }
+
+  /**
+   * Applies a write to the pending state. Callers hold the lock.
+   */
+  private void apply(long seq, String path, Object value) {
+    String ancestor = findPendingAncestor(path);
+    if (ancestor != null) {
+      Pending pending = byPath.get(ancestor);
+      Object merged = setChild(pending.value, path.substring(ancestor.length() + 1), value);
+      put(seq, ancestor, merged);
+      return;
+    }
+    // every pending write below the path is superseded
+    Map<String, Pending> descendants = byPath.subMap(path + "/", path + "0");
+    for (Pending pending : descendants.values()) {
+      bySeq.remove(pending.seq);
+    }
+    descendants.clear();
+    put(seq, path, value);
+  }
+
+  /**
+   * Removes the write to the path if it is still the one with the given sequence
+   * number. Callers hold the lock.
+   */
+  private boolean acknowledge(long seq, String path) {
+    Pending pending = byPath.get(path);
+    if (pending == null || pending.seq != seq) {
+      return false;
+    }
+    byPath.remove(path);
+    bySeq.remove(seq);
+    return true;
+  }
+
+  private void put(long seq, String path, Object value) {
+    Pending previous = byPath.put(path, new Pending(seq, value));
+    if (previous != null) {
+      bySeq.remove(previous.seq);
+    }
+    bySeq.put(seq, path);
+  }
+
+  private String findPendingAncestor(String path) {
+    int slash = path.indexOf('/');
+    while (slash >= 0) {
+      String ancestor = path.substring(0, slash);
+      if (byPath.containsKey(ancestor)) {
+        return ancestor;
+      }
+      slash = path.indexOf('/', slash + 1);
+    }
+    return null;
+  }
+
+  private void scheduleCompactionIfNeeded() {
+    int records = log.getRecords();
+    if (closed || compaction != null || compacting || records < MIN_RECORDS_TO_COMPACT
+        || records < 2 * byPath.size()) {
+      return;
+    }
+    final Scheduler.Worker worker = scheduler.createWorker();
+    compaction = worker;
+    worker.schedule(new Action0() {
+      @Override public void call() {
+        try {
+          synchronized (WriteOutbox.this) {
+            if (compaction != worker) {
+              return;
+            }
+            compaction = null;
+          }
+          compact();
+        } catch (IOException e) {
+          // the uncompacted log is still intact, compaction is retried on the next write
+        } finally {
+          worker.unsubscribe();
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns a copy of the value with the child at the relative path replaced. A list
+   * becomes a map keyed by the indexes of its elements and any other value which is not
+   * a map becomes an empty one, as they do in the database.
+   */
+  @SuppressWarnings("unchecked")
+  private static Object setChild(Object value, String relativePath, Object child) {
+    Map<String, Object> map = new LinkedHashMap<>();
+    if (value instanceof Map) {
+      map.putAll((Map<String, Object>) value);
+    } else if (value instanceof List) {
+      List<Object> list = (List<Object>) value;
+      for (int i = 0; i < list.size(); i++) {
+        if (list.get(i) != null) {
+          map.put(String.valueOf(i), list.get(i));
+        }
+      }
+    }
+    int slash = relativePath.indexOf('/');
+    String key = slash < 0 ? relativePath : relativePath.substring(0, slash);
+    Object updated = slash < 0 ? child
+        : setChild(map.get(key), relativePath.substring(slash + 1), child);
+    if (updated == null) {
+      map.remove(key);
+    } else {
+      map.put(key, updated);
+    }
+    return map.isEmpty() ? null : map;
+  }
+
+  /**
+   * Deep copies maps and lists so later changes by the caller don't leak into the outbox
+   */
+  @SuppressWarnings("unchecked")
+  private static Object copy(Object value) {
+    if (value instanceof Map) {
+      Map<String, Object> copy = new LinkedHashMap<>();
+      for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+        copy.put(entry.getKey(), copy(entry.getValue()));
+      }
+      return copy;
+    } else if (value instanceof List) {
+      List<Object> copy = new ArrayList<>();
+      for (Object item : (List<Object>) value) {
+        copy.add(copy(item));
+      }
+      return copy;
+    }
+    return value;
+  }
+
+  private static String normalize(String path) {
+    String normalized = path;
+    while (normalized.startsWith("/")) {
+      normalized = normalized.substring(1);
+    }
+    while (normalized.endsWith("/")) {
+      normalized = normalized.substring(0, normalized.length() - 1);
+    }
+    if (normalized.isEmpty() || normalized.contains("//")) {
+      throw new IllegalArgumentException("Invalid path: " + path);
+    }
+    for (String key : normalized.split("/")) {
+      if (!isValidKey(key)) {
+        throw new IllegalArgumentException("Invalid path: " + path);
+      }
+    }
+    return normalized;
+  }
+
+  /**
+   * Checks the keys of the maps of the value, at any depth
+   */
+  private static void validateKeys(Object value) {
+    if (value instanceof Map) {
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        String key = String.valueOf(entry.getKey());
+        // the keys of priorities, wrapped values and server values
+        boolean special = key.equals(".priority") || key.equals(".value")
+            || key.equals(".sv");
+        if (!special && (!isValidKey(key) || key.contains("/"))) {
+          throw new IllegalArgumentException("Invalid key: " + key);
+        }
+        validateKeys(entry.getValue());
+      }
+    } else if (value instanceof List) {
+      for (Object item : (List<?>) value) {
+        validateKeys(item);
+      }
+    }
+  }
+
+  private static boolean isValidKey(String key) {
+    if (key.isEmpty()) {
+      return false;
+    }
+    for (int i = 0; i < key.length(); i++) {
+      char c = key.charAt(i);
+      if (c < 0x20 || c == 0x7f || FORBIDDEN_KEY_CHARS.indexOf(c) >= 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static final class Pending {
+
+    final long seq;
+
+    final Object value;
+
+    Pending(long seq, Object value) {
+      this.seq = seq;
+      this.value = value;
+    }
+  }
+}
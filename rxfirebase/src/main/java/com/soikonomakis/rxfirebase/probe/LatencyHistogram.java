@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase.probe;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A histogram of latencies in milliseconds with power of two buckets. Bucket i
+ * counts the samples in [2^(i-1), 2^i), bucket 0 the samples below one millisecond
+ * and the last bucket everything from 2^(BUCKETS-2) on.
+ */
+public class LatencyHistogram {
+
+  static final int BUCKETS = 20;
+
+  private final long[] counts = new long[BUCKETS];
+
+  private long count;
+
+  private long sum;
+
+  private long max;
+
+  public synchronized void record(long millis) {
+    long value = Math.max(0, millis);
+    int bucket = value == 0 ? 0 : 64 - Long.numberOfLeadingZeros(value);
+    counts[Math.min(bucket, BUCKETS - 1)]++;
+    count++;
+    sum += value;
+    max = Math.max(max, value);
+  }
+
+  public synchronized long getCount() {
+    return count;
+  }
+
+  public synchronized long getMax() {
+    return max;
+  }
+
+  public synchronized double getMean() {
+    return count == 0 ? 0 : (double) sum / count;
+  }
+
+  /**
+   * Returns an upper bound of the given percentile, e.g. 0.99, which is the upper
+   * edge of the bucket the percentile falls in, capped by the largest sample
+   */
+  public synchronized long getPercentile(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(percentile * count);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank && counts[i] > 0) {
+        return i == BUCKETS - 1 ? max : Math.min(max, (1L << i) - 1);
+      }
+    }
+    return max;
+  }
+
+  public synchronized void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = 0;
+    }
+    count = 0;
+    sum = 0;
+    max = 0;
+  }
+
+  /**
+   * Returns a copy of the histogram and resets it, so the samples recorded from now on
+   * fall into a new window
+   */
+  public synchronized LatencyHistogram snapshotAndReset() {
+    LatencyHistogram snapshot = new LatencyHistogram();
+    snapshot.add(counts, count, sum, max);
+    reset();
+    return snapshot;
+  }
+
+  /**
+   * Adds the samples of the other histogram to this one
+   */
+  public void merge(LatencyHistogram other) {
+    long[] otherCounts;
+    long otherCount;
+    long otherSum;
+    long otherMax;
+    synchronized (other) {
+      otherCounts = other.counts.clone();
+      otherCount = other.count;
+      otherSum = other.sum;
+      otherMax = other.max;
+    }
+    add(otherCounts, otherCount, otherSum, otherMax);
+  }
+
+  private synchronized void add(long[] otherCounts, long otherCount, long otherSum,
+      long otherMax) {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] += otherCounts[i];
+    }
+    count += otherCount;
+    sum += otherSum;
+    max = Math.max(max, otherMax);
+  }
+
+  /**
+   * Returns a summary which can be written to the database as is
+   */
+  public synchronized Map<String, Object> toMap() {
+    Map<String, Object> map = new HashMap<>();
+    map.put("count", count);
+    map.put("mean", getMean());
+    map.put("p50", getPercentile(0.5));
+    map.put("p90", getPercentile(0.9));
+    map.put("p99", getPercentile(0.99));
+    map.put("max", max);
+    List<Long> buckets = new ArrayList<>(BUCKETS);
+    for (long bucketCount : counts) {
+      buckets.add(bucketCount);
+    }
+    map.put("buckets", buckets);
+    return map;
+  }
+
+  @Override public synchronized String toString() {
+    return "LatencyHistogram{count=" + count
+        + ", mean=" + getMean()
+        + ", p50=" + getPercentile(0.5)
+        + ", p99=" + getPercentile(0.99)
+        + ", max=" + max
+        + "}";
+  }
+}
@@ -0,0 +1,444 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase.probe;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ServerValue;
+import com.soikonomakis.rxfirebase.FirebaseChildEvent;
+import com.soikonomakis.rxfirebase.RxFirebase;
+import com.soikonomakis.rxfirebase.exceptions.FirebaseDatabaseError;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * An opt-in probe of the end to end latency between a write and its confirmation.
+ *
+ * <p>Every {@link #probe()} pushes a timestamped probe node below the probes location
+ * and measures how long the server took to acknowledge it and how long until the
+ * server confirmed value came back through a value listener. The server timestamp of
+ * the probe, corrected by the server time offset, splits the round trip into upload
+ * and download. {@link #observeRemoteLatency()} measures the probes written by other
+ * clients, from the moment the server stamped them until the local listener fired.
+ *
+ * <p>All the measurements are recorded in histograms, which {@link #publish} writes to
+ * the database below the region of the probe and the id of this client, so latency
+ * regressions can be alerted on. Every publish starts a new window: the histograms only
+ * hold the samples recorded since the last successful one, and the bucket counts of the
+ * clients of a region add up to the histogram of the region.
+ * Probe nodes are removed once measured. The nodes of clients which were killed before
+ * that are left behind; call {@link #removeStaleProbes()} now and then, or let a server
+ * side job remove the probes whose {@code serverTime} is old.
+ *
+ * <p>The probes location should be indexed on {@code serverTime} in the security rules,
+ * <code>".indexOn": "serverTime"</code>, so that the remote latency listener only
+ * downloads the probes written after it was attached.
+ */
+public class LatencyProbe {
+
+  static final String SOURCE = "source";
+
+  static final String REGION = "region";
+
+  static final String CLIENT_TIME = "clientTime";
+
+  static final String SERVER_TIME = "serverTime";
+
+  static final String SERVER_TIME_OFFSET = ".info/serverTimeOffset";
+
+  private static final long DEFAULT_ECHO_TIMEOUT_MILLIS = 5000;
+
+  /**
+   * The age after which a probe node is certainly no longer being measured
+   */
+  static final long STALE_PROBE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  private final RxFirebase rxFirebase = RxFirebase.getInstance();
+
+  private final DatabaseReference probesRef;
+
+  private final String region;
+
+  private final String source = UUID.randomUUID().toString();
+
+  private final long echoTimeoutMillis;
+
+  private final Scheduler scheduler;
+
+  private final LatencyHistogram ack = new LatencyHistogram();
+
+  private final LatencyHistogram echo = new LatencyHistogram();
+
+  private final LatencyHistogram upload = new LatencyHistogram();
+
+  private final LatencyHistogram download = new LatencyHistogram();
+
+  private final LatencyHistogram remote = new LatencyHistogram();
+
+  /**
+   * When the current window of the histograms started
+   */
+  private long windowStartMillis = System.currentTimeMillis();
+
+  /**
+   * @param probesRef the location probe nodes are written to, readable and writable by
+   * every probing client
+   * @param region the label the histograms are published under
+   */
+  public LatencyProbe(DatabaseReference probesRef, String region) {
+    this(probesRef, region, DEFAULT_ECHO_TIMEOUT_MILLIS, Schedulers.computation());
+  }
+
+  LatencyProbe(DatabaseReference probesRef, String region, long echoTimeoutMillis,
+      Scheduler scheduler) {
+    this.probesRef = probesRef;
+    this.region = region;
+    this.echoTimeoutMillis = echoTimeoutMillis;
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Writes a probe node and emits its measurements once the server confirmed value
+   * was delivered, or the echo timeout passed after the acknowledgement
+   */
+  public Observable<ProbeResult> probe() {
+    return observeServerTimeOffset().flatMap(new Func1<Long, Observable<ProbeResult>>() {
+      @Override public Observable<ProbeResult> call(Long offset) {
+        return write(offset);
+      }
+    });
+  }
+
+  /**
+   * Observes the latency of the probes other clients write from now on, from the
+   * server timestamp until the local listener fired
+   */
+  public Observable<Long> observeRemoteLatency() {
+    return observeServerTimeOffset().flatMap(new Func1<Long, Observable<Long>>() {
+      @Override public Observable<Long> call(final Long offset) {
+        final long since = System.currentTimeMillis() + offset;
+        Query recentProbes = probesRef.orderByChild(SERVER_TIME).startAt(since);
+        return rxFirebase.observeChildAdded(recentProbes)
+            .map(new Func1<FirebaseChildEvent, Long>() {
+              @Override public Long call(FirebaseChildEvent firebaseChildEvent) {
+                DataSnapshot dataSnapshot = firebaseChildEvent.getDataSnapshot();
+                Long serverTime = serverTimeOf(dataSnapshot);
+                if (serverTime == null || serverTime < since
+                    || source.equals(dataSnapshot.child(SOURCE).getValue())) {
+                  return null;
+                }
+                long latency = System.currentTimeMillis() + offset - serverTime;
+                remote.record(latency);
+                return latency;
+              }
+            })
+            .filter(new Func1<Long, Boolean>() {
+              @Override public Boolean call(Long latency) {
+                return latency != null;
+              }
+            });
+      }
+    });
+  }
+
+  /**
+   * Removes the probe nodes which were written more than ten minutes ago by any client,
+   * e.g. by clients which were killed while probing. Emits the number of nodes removed
+   * and completes once the server acknowledged the removal.
+   */
+  public Observable<Integer> removeStaleProbes() {
+    return observeServerTimeOffset().flatMap(new Func1<Long, Observable<DataSnapshot>>() {
+      @Override public Observable<DataSnapshot> call(Long offset) {
+        long staleBefore = System.currentTimeMillis() + offset - STALE_PROBE_MILLIS;
+        return rxFirebase.observeSingleValue(
+            probesRef.orderByChild(SERVER_TIME).endAt(staleBefore));
+      }
+    }).flatMap(new Func1<DataSnapshot, Observable<Integer>>() {
+      @Override public Observable<Integer> call(final DataSnapshot stale) {
+        return Observable.create(new Observable.OnSubscribe<Integer>() {
+          @Override public void call(final Subscriber<? super Integer> subscriber) {
+            final Map<String, Object> removals = new HashMap<>();
+            for (DataSnapshot probe : stale.getChildren()) {
+              removals.put(probe.getKey(), null);
+            }
+            if (removals.isEmpty()) {
+              subscriber.onNext(0);
+              subscriber.onCompleted();
+              return;
+            }
+            probesRef.updateChildren(removals, new DatabaseReference.CompletionListener() {
+              @Override public void onComplete(DatabaseError error, DatabaseReference ref) {
+                if (error != null) {
+                  subscriber.onError(toException(error));
+                } else {
+                  subscriber.onNext(removals.size());
+                  subscriber.onCompleted();
+                }
+              }
+            });
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Writes a summary of the histograms to {@code <region>/<client id>} below the given
+   * location, resets them and completes once the server acknowledged it. The samples
+   * are kept for the next publish when the write fails.
+   */
+  public Observable<Void> publish(final DatabaseReference metricsRef) {
+    return Observable.create(new Observable.OnSubscribe<Void>() {
+      @Override public void call(final Subscriber<? super Void> subscriber) {
+        final Map<String, LatencyHistogram> windows = new LinkedHashMap<>();
+        final long startMillis;
+        synchronized (LatencyProbe.this) {
+          for (Map.Entry<String, LatencyHistogram> entry : histograms().entrySet()) {
+            windows.put(entry.getKey(), entry.getValue().snapshotAndReset());
+          }
+          startMillis = windowStartMillis;
+          windowStartMillis = System.currentTimeMillis();
+        }
+        Map<String, Object> metrics = new HashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : windows.entrySet()) {
+          metrics.put(entry.getKey(), entry.getValue().toMap());
+        }
+        metrics.put("windowStartedAt", startMillis);
+        metrics.put("updatedAt", ServerValue.TIMESTAMP);
+        metricsRef.child(region).child(source).setValue(metrics,
+            new DatabaseReference.CompletionListener() {
+              @Override public void onComplete(DatabaseError error, DatabaseReference ref) {
+                if (error != null) {
+                  synchronized (LatencyProbe.this) {
+                    for (Map.Entry<String, LatencyHistogram> entry : histograms().entrySet()) {
+                      entry.getValue().merge(windows.get(entry.getKey()));
+                    }
+                    windowStartMillis = Math.min(windowStartMillis, startMillis);
+                  }
+                  subscriber.onError(toException(error));
+                } else {
+                  subscriber.onCompleted();
+                }
+              }
+            });
+      }
+    });
+  }
+
+  public LatencyHistogram getAckHistogram() {
+    return ack;
+  }
+
+  public LatencyHistogram getEchoHistogram() {
+    return echo;
+  }
+
+  public LatencyHistogram getUploadHistogram() {
+    return upload;
+  }
+
+  public LatencyHistogram getDownloadHistogram() {
+    return download;
+  }
+
+  public LatencyHistogram getRemoteHistogram() {
+    return remote;
+  }
+
+  private Map<String, LatencyHistogram> histograms() {
+    Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+    histograms.put("ack", ack);
+    histograms.put("echo", echo);
+    histograms.put("upload", upload);
+    histograms.put("download", download);
+    histograms.put("remote", remote);
+    return histograms;
+  }
+
+  private Observable<Long> observeServerTimeOffset() {
+    return rxFirebase.observeSingleValue(probesRef.getRoot().child(SERVER_TIME_OFFSET))
+        .map(new Func1<DataSnapshot, Long>() {
+          @Override public Long call(DataSnapshot dataSnapshot) {
+            Object offset = dataSnapshot.getValue();
+            return offset instanceof Number ? ((Number) offset).longValue() : 0L;
+          }
+        });
+  }
+
+  private Observable<ProbeResult> write(final long offset) {
+    return Observable.create(new Observable.OnSubscribe<ProbeResult>() {
+      @Override public void call(final Subscriber<? super ProbeResult> subscriber) {
+        final DatabaseReference probeRef = probesRef.push();
+        final ProbeWrite probeWrite = new ProbeWrite(offset, subscriber);
+
+        // listen before writing so that no event of the probe is missed
+        subscriber.add(rxFirebase.observeValueEvent(probeRef).subscribe(
+            new Action1<DataSnapshot>() {
+              @Override public void call(DataSnapshot dataSnapshot) {
+                probeWrite.onValue(dataSnapshot);
+              }
+            }, new Action1<Throwable>() {
+              @Override public void call(Throwable throwable) {
+                probeWrite.onError(throwable);
+              }
+            }));
+        subscriber.add(Subscriptions.create(new Action0() {
+          @Override public void call() {
+            probeRef.removeValue();
+          }
+        }));
+
+        Map<String, Object> probe = new HashMap<>();
+        probe.put(SOURCE, source);
+        probe.put(REGION, region);
+        probe.put(CLIENT_TIME, probeWrite.startWallMillis);
+        probe.put(SERVER_TIME, ServerValue.TIMESTAMP);
+        probeRef.setValue(probe, new DatabaseReference.CompletionListener() {
+          @Override public void onComplete(DatabaseError error, DatabaseReference ref) {
+            if (error != null) {
+              probeWrite.onError(toException(error));
+            } else {
+              probeWrite.onAck();
+            }
+          }
+        });
+      }
+    });
+  }
+
+  private static Long serverTimeOf(DataSnapshot dataSnapshot) {
+    Object serverTime = dataSnapshot.child(SERVER_TIME).getValue();
+    return serverTime instanceof Number ? ((Number) serverTime).longValue() : null;
+  }
+
+  private static FirebaseDatabaseError toException(DatabaseError error) {
+    return new FirebaseDatabaseError(error.getCode(), error.getMessage() + error.getDetails());
+  }
+
+  /**
+   * The state of a single probe. The listener first fires with the server timestamp
+   * estimated locally, and again once the server resolved it.
+   */
+  private final class ProbeWrite {
+
+    final long startWallMillis = System.currentTimeMillis();
+
+    private final long startNanos = System.nanoTime();
+
+    private final long offset;
+
+    private final Subscriber<? super ProbeResult> subscriber;
+
+    private Long estimatedServerTime;
+
+    private long confirmedServerTime;
+
+    private long confirmedWallMillis;
+
+    private long ackNanos = -1;
+
+    private long echoNanos = -1;
+
+    private boolean done;
+
+    ProbeWrite(long offset, Subscriber<? super ProbeResult> subscriber) {
+      this.offset = offset;
+      this.subscriber = subscriber;
+    }
+
+    synchronized void onValue(DataSnapshot dataSnapshot) {
+      Long serverTime = serverTimeOf(dataSnapshot);
+      if (serverTime == null || echoNanos >= 0) {
+        return;
+      }
+      if (estimatedServerTime == null) {
+        estimatedServerTime = serverTime;
+        return;
+      }
+      if (!serverTime.equals(estimatedServerTime)) {
+        echoNanos = System.nanoTime();
+        confirmedServerTime = serverTime;
+        confirmedWallMillis = System.currentTimeMillis();
+        if (ackNanos >= 0) {
+          finish();
+        }
+      }
+    }
+
+    synchronized void onAck() {
+      ackNanos = System.nanoTime();
+      if (echoNanos >= 0) {
+        finish();
+        return;
+      }
+      // the estimate may have matched the server timestamp, in which case no second
+      // event is raised
+      Scheduler.Worker worker = scheduler.createWorker();
+      subscriber.add(worker);
+      worker.schedule(new Action0() {
+        @Override public void call() {
+          synchronized (ProbeWrite.this) {
+            finish();
+          }
+        }
+      }, echoTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void onError(Throwable throwable) {
+      if (!done) {
+        done = true;
+        subscriber.onError(throwable);
+      }
+    }
+
+    private void finish() {
+      if (done) {
+        return;
+      }
+      done = true;
+      long ackMillis = TimeUnit.NANOSECONDS.toMillis(ackNanos - startNanos);
+      ack.record(ackMillis);
+      ProbeResult result;
+      if (echoNanos >= 0) {
+        long echoMillis = TimeUnit.NANOSECONDS.toMillis(echoNanos - startNanos);
+        long uploadMillis = confirmedServerTime - (startWallMillis + offset);
+        long downloadMillis = confirmedWallMillis + offset - confirmedServerTime;
+        echo.record(echoMillis);
+        upload.record(uploadMillis);
+        download.record(downloadMillis);
+        result = new ProbeResult(ackMillis, echoMillis, uploadMillis, downloadMillis, offset);
+      } else {
+        result = new ProbeResult(ackMillis, ProbeResult.UNKNOWN, ProbeResult.UNKNOWN,
+            ProbeResult.UNKNOWN, offset);
+      }
+      subscriber.onNext(result);
+      subscriber.onCompleted();
+    }
+  }
+}
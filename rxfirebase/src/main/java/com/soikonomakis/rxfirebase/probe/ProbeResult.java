@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase.probe;
+
+/**
+ * The latencies measured by a single probe write, in milliseconds
+ */
+public final class ProbeResult {
+
+  public static final long UNKNOWN = -1;
+
+  private final long ackMillis;
+
+  private final long echoMillis;
+
+  private final long uploadMillis;
+
+  private final long downloadMillis;
+
+  private final long serverTimeOffsetMillis;
+
+  ProbeResult(long ackMillis, long echoMillis, long uploadMillis, long downloadMillis,
+      long serverTimeOffsetMillis) {
+    this.ackMillis = ackMillis;
+    this.echoMillis = echoMillis;
+    this.uploadMillis = uploadMillis;
+    this.downloadMillis = downloadMillis;
+    this.serverTimeOffsetMillis = serverTimeOffsetMillis;
+  }
+
+  /**
+   * Time from the write until the server acknowledged it
+   */
+  public long getAckMillis() {
+    return ackMillis;
+  }
+
+  /**
+   * Time from the write until the server confirmed value reached the value listener,
+   * or {@link #UNKNOWN} when no confirmed event arrived in time
+   */
+  public long getEchoMillis() {
+    return echoMillis;
+  }
+
+  /**
+   * Time from the write until the server stamped it, corrected by the clock offset,
+   * or {@link #UNKNOWN}
+   */
+  public long getUploadMillis() {
+    return uploadMillis;
+  }
+
+  /**
+   * Time from the server stamp until the listener fired, corrected by the clock
+   * offset, or {@link #UNKNOWN}
+   */
+  public long getDownloadMillis() {
+    return downloadMillis;
+  }
+
+  /**
+   * The estimated difference between the server clock and the local clock
+   */
+  public long getServerTimeOffsetMillis() {
+    return serverTimeOffsetMillis;
+  }
+
+  @Override public String toString() {
+    return "ProbeResult{ackMillis=" + ackMillis
+        + ", echoMillis=" + echoMillis
+        + ", uploadMillis=" + uploadMillis
+        + ", downloadMillis=" + downloadMillis
+        + ", serverTimeOffsetMillis=" + serverTimeOffsetMillis
+        + "}";
+  }
+}
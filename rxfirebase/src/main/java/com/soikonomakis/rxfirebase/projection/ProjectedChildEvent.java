@@ -0,0 +1,53 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase.projection;
+
+import com.soikonomakis.rxfirebase.FirebaseChildEvent.EventType;
+
+/**
+ * A child event whose snapshot was projected into a {@link ProjectedRecord}
+ */
+public final class ProjectedChildEvent {
+
+  private final ProjectedRecord record;
+
+  private final String previousChildName;
+
+  private final EventType eventType;
+
+  ProjectedChildEvent(ProjectedRecord record, String previousChildName, EventType eventType) {
+    this.record = record;
+    this.previousChildName = previousChildName;
+    this.eventType = eventType;
+  }
+
+  public ProjectedRecord getRecord() {
+    return record;
+  }
+
+  public String getPreviousChildName() {
+    return previousChildName;
+  }
+
+  public EventType getEventType() {
+    return eventType;
+  }
+
+  @Override public String toString() {
+    return "ProjectedChildEvent{eventType=" + eventType
+        + ", previousChildName=" + previousChildName
+        + ", record=" + record
+        + "}";
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase.projection;
+
+import java.util.Arrays;
+
+/**
+ * The immutable values of the declared fields of a {@link Projection}, read out of a
+ * single snapshot. Fields which did not exist in the snapshot are null.
+ */
+public final class ProjectedRecord {
+
+  private final Projection projection;
+
+  private final String key;
+
+  private final Object[] values;
+
+  ProjectedRecord(Projection projection, String key, Object[] values) {
+    this.projection = projection;
+    this.key = key;
+    this.values = values;
+  }
+
+  /**
+   * The key of the projected snapshot
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Whether the field existed in the projected snapshot
+   */
+  public boolean has(String path) {
+    return values[indexOf(path)] != null;
+  }
+
+  /**
+   * The raw value of the field: a {@link Boolean}, {@link Long}, {@link Double},
+   * {@link String}, or an unmodifiable map or list of those
+   */
+  public Object get(String path) {
+    return values[indexOf(path)];
+  }
+
+  public String getString(String path) {
+    Object value = get(path);
+    return value instanceof String ? (String) value : null;
+  }
+
+  /**
+   * Reads a numeric field, accepting both the {@link Long} and {@link Double} values
+   * the database hands back
+   */
+  public Long getLong(String path) {
+    Number value = number(path);
+    return value == null ? null : value.longValue();
+  }
+
+  /**
+   * Reads a numeric field, accepting both the {@link Long} and {@link Double} values
+   * the database hands back
+   */
+  public Double getDouble(String path) {
+    Number value = number(path);
+    return value == null ? null : value.doubleValue();
+  }
+
+  public Boolean getBoolean(String path) {
+    Object value = get(path);
+    return value instanceof Boolean ? (Boolean) value : null;
+  }
+
+  public Projection getProjection() {
+    return projection;
+  }
+
+  @Override public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof ProjectedRecord)) {
+      return false;
+    }
+    ProjectedRecord other = (ProjectedRecord) o;
+    return projection == other.projection
+        && (key == null ? other.key == null : key.equals(other.key))
+        && Arrays.equals(values, other.values);
+  }
+
+  @Override public int hashCode() {
+    return 31 * (key == null ? 0 : key.hashCode()) + Arrays.hashCode(values);
+  }
+
+  @Override public String toString() {
+    StringBuilder builder = new StringBuilder("ProjectedRecord{key=").append(key);
+    for (int i = 0; i < values.length; i++) {
+      builder.append(", ").append(projection.pathAt(i)).append('=').append(values[i]);
+    }
+    return builder.append('}').toString();
+  }
+
+  private Number number(String path) {
+    Object value = get(path);
+    return value instanceof Number ? (Number) value : null;
+  }
+
+  private int indexOf(String path) {
+    int index = projection.indexOf(path);
+    if (index < 0) {
+      throw new IllegalArgumentException("Field " + path + " is not part of the projection "
+          + projection.getPaths());
+    }
+    return index;
+  }
+}
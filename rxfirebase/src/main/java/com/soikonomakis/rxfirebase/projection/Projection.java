@@ -0,0 +1,180 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase.projection;
+
+import com.google.firebase.database.DataSnapshot;
+import com.soikonomakis.rxfirebase.FirebaseChildEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import rx.Observable;
+import rx.functions.Func1;
+
+/**
+ * A declared set of fields to read out of snapshots.
+ *
+ * <p>Projecting a snapshot reads only the declared children, in a single pass, and
+ * copies their values into a compact immutable {@link ProjectedRecord}. Neither the
+ * record nor its values reference the snapshot, so the snapshot and the rest of its
+ * subtree can be collected as soon as the projection returns, however long the
+ * records are kept.
+ *
+ * <pre>
+ * Projection summary = Projection.of("title", "author/name", "stars");
+ *
+ * RxFirebase.getInstance()
+ *     .observeChildEvent(postsRef)
+ *     .compose(summary.childEvents())
+ *     .subscribe(...);
+ * </pre>
+ */
+public final class Projection implements Func1<DataSnapshot, ProjectedRecord> {
+
+  private final String[] paths;
+
+  private final Map<String, Integer> indexes;
+
+  private Projection(String[] paths) {
+    this.paths = paths;
+    this.indexes = new HashMap<>(paths.length * 2);
+    for (int i = 0; i < paths.length; i++) {
+      if (indexes.put(paths[i], i) != null) {
+        throw new IllegalArgumentException("Field " + paths[i] + " is declared twice");
+      }
+    }
+  }
+
+  /**
+   * Declares the fields to project, as paths relative to the projected snapshot such
+   * as {@code "title"} or {@code "author/name"}
+   */
+  public static Projection of(String... paths) {
+    if (paths.length == 0) {
+      throw new IllegalArgumentException("At least one field must be declared");
+    }
+    return new Projection(paths.clone());
+  }
+
+  /**
+   * The declared fields, in declaration order
+   */
+  public List<String> getPaths() {
+    return Collections.unmodifiableList(Arrays.asList(paths));
+  }
+
+  /**
+   * Projects a single snapshot
+   */
+  @Override public ProjectedRecord call(DataSnapshot dataSnapshot) {
+    Object[] values = new Object[paths.length];
+    for (int i = 0; i < paths.length; i++) {
+      if (dataSnapshot.hasChild(paths[i])) {
+        values[i] = freeze(dataSnapshot.child(paths[i]).getValue());
+      }
+    }
+    return new ProjectedRecord(this, dataSnapshot.getKey(), values);
+  }
+
+  /**
+   * Projects every snapshot of a value event stream
+   */
+  public Observable.Transformer<DataSnapshot, ProjectedRecord> values() {
+    return new Observable.Transformer<DataSnapshot, ProjectedRecord>() {
+      @Override public Observable<ProjectedRecord> call(Observable<DataSnapshot> snapshots) {
+        return snapshots.map(Projection.this);
+      }
+    };
+  }
+
+  /**
+   * Projects each child of every snapshot of a value event stream, keeping the order
+   * of the query
+   */
+  public Observable.Transformer<DataSnapshot, List<ProjectedRecord>> children() {
+    return new Observable.Transformer<DataSnapshot, List<ProjectedRecord>>() {
+      @Override
+      public Observable<List<ProjectedRecord>> call(Observable<DataSnapshot> snapshots) {
+        return snapshots.map(new Func1<DataSnapshot, List<ProjectedRecord>>() {
+          @Override public List<ProjectedRecord> call(DataSnapshot dataSnapshot) {
+            List<ProjectedRecord> records = new ArrayList<>((int) dataSnapshot.getChildrenCount());
+            for (DataSnapshot child : dataSnapshot.getChildren()) {
+              records.add(Projection.this.call(child));
+            }
+            return Collections.unmodifiableList(records);
+          }
+        });
+      }
+    };
+  }
+
+  /**
+   * Projects the snapshot of every event of a child event stream
+   */
+  public Observable.Transformer<FirebaseChildEvent, ProjectedChildEvent> childEvents() {
+    return new Observable.Transformer<FirebaseChildEvent, ProjectedChildEvent>() {
+      @Override
+      public Observable<ProjectedChildEvent> call(Observable<FirebaseChildEvent> events) {
+        return events.map(new Func1<FirebaseChildEvent, ProjectedChildEvent>() {
+          @Override public ProjectedChildEvent call(FirebaseChildEvent event) {
+            return new ProjectedChildEvent(Projection.this.call(event.getDataSnapshot()),
+                event.getPreviousChildName(), event.getEventType());
+          }
+        });
+      }
+    };
+  }
+
+  /**
+   * Returns the index of the field in the values of a record, or -1 when it was not
+   * declared
+   */
+  int indexOf(String path) {
+    Integer index = indexes.get(path);
+    return index == null ? -1 : index;
+  }
+
+  String pathAt(int index) {
+    return paths[index];
+  }
+
+  /**
+   * Makes the maps and lists of a nested value unmodifiable, the database hands back
+   * only immutable leaves otherwise
+   */
+  private static Object freeze(Object value) {
+    if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      Map<String, Object> frozen = new LinkedHashMap<>(map.size() * 2);
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        frozen.put(String.valueOf(entry.getKey()), freeze(entry.getValue()));
+      }
+      return Collections.unmodifiableMap(frozen);
+    }
+    if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      List<Object> frozen = new ArrayList<>(list.size());
+      for (Object item : list) {
+        frozen.add(freeze(item));
+      }
+      return Collections.unmodifiableList(frozen);
+    }
+    return value;
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase.warmup;
+
+import com.google.firebase.database.DataSnapshot;
+
+/**
+ * Estimates the size of a snapshot as the UTF-16 size of its keys and string
+ * leaves plus eight bytes for every other leaf
+ */
+final class SnapshotSizes {
+
+  private static final int PRIMITIVE_BYTES = 8;
+
+  //Prevent constructor initialisation
+  private SnapshotSizes() {
+
+  }
+
+  static long estimate(DataSnapshot dataSnapshot) {
+    String key = dataSnapshot.getKey();
+    long bytes = key == null ? 0 : 2L * key.length();
+    if (dataSnapshot.hasChildren()) {
+      for (DataSnapshot child : dataSnapshot.getChildren()) {
+        bytes += estimate(child);
+      }
+      return bytes;
+    }
+    Object value = dataSnapshot.getValue();
+    if (value instanceof String) {
+      bytes += 2L * ((String) value).length();
+    } else if (value != null) {
+      bytes += PRIMITIVE_BYTES;
+    }
+    return bytes;
+  }
+}
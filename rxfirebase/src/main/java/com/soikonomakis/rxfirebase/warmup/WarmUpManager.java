@@ -0,0 +1,330 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase.warmup;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.Query;
+import com.soikonomakis.rxfirebase.RxFirebase;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import rx.Subscriber;
+import rx.subscriptions.CompositeSubscription;
+
+/**
+ * Primes the queries of the screens a user is likely to open next, so they are
+ * served from the local cache instead of waiting on the network.
+ *
+ * <p>Screens are registered with the queries they read. The likely next screens are
+ * either declared up front or learned from the navigation reported through
+ * {@link #onNavigate(String)}. Their queries are primed with
+ * {@link Query#keepSynced(boolean)} and a single value fetch, within a byte budget and
+ * a limit of concurrent fetches. Warm queries are released least recently used first
+ * once the budget is exceeded.
+ *
+ * <p>Queries are tracked by identity, so register the same {@link Query} instance
+ * which the screen subscribes to.
+ */
+public class WarmUpManager {
+
+  private static final int DEFAULT_MAX_PREDICTIONS = 2;
+
+  /**
+   * How many times a query which did not fit the budget is skipped before it is fetched
+   * again, in case its data shrank
+   */
+  static final int OVERSIZED_SKIPS = 10;
+
+  /**
+   * Upper bound of the queries remembered as not fitting the budget
+   */
+  static final int MAX_OVERSIZED = 64;
+
+  private final RxFirebase rxFirebase = RxFirebase.getInstance();
+
+  private final long byteBudget;
+
+  private final int maxConcurrentFetches;
+
+  private final int maxPredictions;
+
+  private final Map<String, List<Query>> screenQueries = new HashMap<>();
+
+  private final Map<String, Set<String>> declaredNext = new HashMap<>();
+
+  private final Map<String, Map<String, Integer>> transitions = new HashMap<>();
+
+  /**
+   * Warm queries and their estimated size in bytes, in access order
+   */
+  private final LinkedHashMap<Query, Long> warm = new LinkedHashMap<>(16, 0.75f, true);
+
+  /**
+   * The queries whose last fetch did not fit the budget and how many more times they are
+   * skipped, least recently seen first
+   */
+  private final LinkedHashMap<Query, Integer> oversized =
+      new LinkedHashMap<Query, Integer>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<Query, Integer> eldest) {
+          return size() > MAX_OVERSIZED;
+        }
+      };
+
+  private final Set<Query> inFlight = new HashSet<>();
+
+  private final Deque<Query> pending = new ArrayDeque<>();
+
+  private final CompositeSubscription fetches = new CompositeSubscription();
+
+  private String currentScreen;
+
+  private long warmBytes;
+
+  private long prefetches;
+
+  private long prefetchedBytes;
+
+  private long hits;
+
+  private long misses;
+
+  private long evictions;
+
+  private long failures;
+
+  public WarmUpManager(long byteBudget, int maxConcurrentFetches) {
+    this(byteBudget, maxConcurrentFetches, DEFAULT_MAX_PREDICTIONS);
+  }
+
+  /**
+   * @param byteBudget upper bound of the estimated bytes kept warm
+   * @param maxConcurrentFetches upper bound of the prefetches running at once
+   * @param maxPredictions how many likely next screens are primed on every navigation
+   */
+  public WarmUpManager(long byteBudget, int maxConcurrentFetches, int maxPredictions) {
+    if (byteBudget <= 0 || maxConcurrentFetches <= 0 || maxPredictions <= 0) {
+      throw new IllegalArgumentException("Budgets must be positive");
+    }
+    this.byteBudget = byteBudget;
+    this.maxConcurrentFetches = maxConcurrentFetches;
+    this.maxPredictions = maxPredictions;
+  }
+
+  /**
+   * Registers the queries a screen reads when it is opened
+   */
+  public synchronized void register(String screen, Query... queries) {
+    List<Query> registered = screenQueries.get(screen);
+    if (registered == null) {
+      registered = new ArrayList<>();
+      screenQueries.put(screen, registered);
+    }
+    Collections.addAll(registered, queries);
+  }
+
+  /**
+   * Declares screens which are likely to follow the given one. Declared screens are
+   * predicted before any learned ones.
+   */
+  public synchronized void declareNext(String screen, String... nextScreens) {
+    Set<String> declared = declaredNext.get(screen);
+    if (declared == null) {
+      declared = new LinkedHashSet<>();
+      declaredNext.put(screen, declared);
+    }
+    Collections.addAll(declared, nextScreens);
+  }
+
+  /**
+   * Reports that the user opened a screen. Records whether its queries were warm,
+   * learns the transition from the previous screen and primes the queries of the
+   * screens predicted to follow.
+   */
+  public synchronized void onNavigate(String screen) {
+    for (Query query : queriesOf(screen)) {
+      if (warm.get(query) != null) {
+        hits++;
+      } else {
+        misses++;
+      }
+    }
+    if (currentScreen != null && !currentScreen.equals(screen)) {
+      Map<String, Integer> counts = transitions.get(currentScreen);
+      if (counts == null) {
+        counts = new HashMap<>();
+        transitions.put(currentScreen, counts);
+      }
+      Integer count = counts.get(screen);
+      counts.put(screen, count == null ? 1 : count + 1);
+    }
+    currentScreen = screen;
+
+    // predictions of the previous screen are stale now
+    pending.clear();
+    for (String next : predict(screen)) {
+      for (Query query : queriesOf(next)) {
+        if (warm.get(query) == null && !inFlight.contains(query) && !pending.contains(query)
+            && !skipOversized(query)) {
+          pending.add(query);
+        }
+      }
+    }
+    drain();
+  }
+
+  /**
+   * Returns the screens predicted to follow the given one, declared ones first and
+   * then the learned ones by the number of times the transition was observed
+   */
+  public synchronized List<String> predict(String screen) {
+    Set<String> predictions = new LinkedHashSet<>();
+    Set<String> declared = declaredNext.get(screen);
+    if (declared != null) {
+      predictions.addAll(declared);
+    }
+    final Map<String, Integer> counts = transitions.get(screen);
+    if (counts != null) {
+      List<String> learned = new ArrayList<>(counts.keySet());
+      Collections.sort(learned, new Comparator<String>() {
+        @Override public int compare(String lhs, String rhs) {
+          return counts.get(rhs).compareTo(counts.get(lhs));
+        }
+      });
+      predictions.addAll(learned);
+    }
+    predictions.remove(screen);
+    List<String> result = new ArrayList<>(predictions);
+    return result.size() > maxPredictions ? result.subList(0, maxPredictions) : result;
+  }
+
+  public synchronized WarmUpStats getStats() {
+    return new WarmUpStats(prefetches, prefetchedBytes, hits, misses, evictions, failures,
+        warm.size(), warmBytes);
+  }
+
+  /**
+   * Cancels the running prefetches and releases every warm query
+   */
+  public synchronized void clear() {
+    fetches.clear();
+    pending.clear();
+    for (Query query : inFlight) {
+      query.keepSynced(false);
+    }
+    inFlight.clear();
+    for (Query query : warm.keySet()) {
+      query.keepSynced(false);
+    }
+    warm.clear();
+    warmBytes = 0;
+    oversized.clear();
+  }
+
+  private List<Query> queriesOf(String screen) {
+    List<Query> queries = screenQueries.get(screen);
+    return queries == null ? Collections.<Query>emptyList() : queries;
+  }
+
+  private void drain() {
+    while (inFlight.size() < maxConcurrentFetches && !pending.isEmpty()) {
+      prefetch(pending.poll());
+    }
+  }
+
+  /**
+   * Returns whether the query is skipped as it did not fit the budget recently, and
+   * counts the skip
+   */
+  private boolean skipOversized(Query query) {
+    Integer skips = oversized.get(query);
+    if (skips == null) {
+      return false;
+    }
+    if (skips <= 1) {
+      oversized.remove(query);
+    } else {
+      oversized.put(query, skips - 1);
+    }
+    return true;
+  }
+
+  private void prefetch(final Query query) {
+    inFlight.add(query);
+    query.keepSynced(true);
+    Subscriber<DataSnapshot> fetch = new Subscriber<DataSnapshot>() {
+      @Override public void onCompleted() {
+        fetches.remove(this);
+      }
+
+      @Override public void onError(Throwable e) {
+        fetches.remove(this);
+        onFailed(query);
+      }
+
+      @Override public void onNext(DataSnapshot dataSnapshot) {
+        onFetched(query, SnapshotSizes.estimate(dataSnapshot));
+      }
+    };
+    fetches.add(fetch);
+    rxFirebase.observeSingleValue(query).subscribe(fetch);
+  }
+
+  private synchronized void onFetched(Query query, long bytes) {
+    if (!inFlight.remove(query)) {
+      // cleared while the fetch was running
+      return;
+    }
+    prefetches++;
+    prefetchedBytes += bytes;
+    if (bytes > byteBudget) {
+      // keeping it would evict everything else and then itself
+      oversized.put(query, OVERSIZED_SKIPS);
+      query.keepSynced(false);
+      drain();
+      return;
+    }
+    warm.put(query, bytes);
+    warmBytes += bytes;
+    Iterator<Map.Entry<Query, Long>> eldest = warm.entrySet().iterator();
+    while (warmBytes > byteBudget && eldest.hasNext()) {
+      Map.Entry<Query, Long> entry = eldest.next();
+      entry.getKey().keepSynced(false);
+      warmBytes -= entry.getValue();
+      evictions++;
+      eldest.remove();
+    }
+    drain();
+  }
+
+  private synchronized void onFailed(Query query) {
+    if (!inFlight.remove(query)) {
+      return;
+    }
+    query.keepSynced(false);
+    failures++;
+    drain();
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase.warmup;
+
+/**
+ * An immutable snapshot of the counters of a {@link WarmUpManager}
+ */
+public final class WarmUpStats {
+
+  private final long prefetches;
+
+  private final long prefetchedBytes;
+
+  private final long hits;
+
+  private final long misses;
+
+  private final long evictions;
+
+  private final long failures;
+
+  private final int warmQueries;
+
+  private final long warmBytes;
+
+  WarmUpStats(long prefetches, long prefetchedBytes, long hits, long misses, long evictions,
+      long failures, int warmQueries, long warmBytes) {
+    this.prefetches = prefetches;
+    this.prefetchedBytes = prefetchedBytes;
+    this.hits = hits;
+    this.misses = misses;
+    this.evictions = evictions;
+    this.failures = failures;
+    this.warmQueries = warmQueries;
+    this.warmBytes = warmBytes;
+  }
+
+  /**
+   * Number of completed prefetches
+   */
+  public long getPrefetches() {
+    return prefetches;
+  }
+
+  /**
+   * Estimated bytes fetched by the completed prefetches
+   */
+  public long getPrefetchedBytes() {
+    return prefetchedBytes;
+  }
+
+  /**
+   * Number of queries which were warm when their screen was opened
+   */
+  public long getHits() {
+    return hits;
+  }
+
+  /**
+   * Number of queries which were cold when their screen was opened
+   */
+  public long getMisses() {
+    return misses;
+  }
+
+  public long getEvictions() {
+    return evictions;
+  }
+
+  public long getFailures() {
+    return failures;
+  }
+
+  public int getWarmQueries() {
+    return warmQueries;
+  }
+
+  public long getWarmBytes() {
+    return warmBytes;
+  }
+
+  /**
+   * The share of opened queries which were warm, or 0 when no screen was opened yet
+   */
+  public double getHitRate() {
+    long total = hits + misses;
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  @Override public String toString() {
+    return "WarmUpStats{prefetches=" + prefetches
+        + ", prefetchedBytes=" + prefetchedBytes
+        + ", hits=" + hits
+        + ", misses=" + misses
+        + ", evictions=" + evictions
+        + ", failures=" + failures
+        + ", warmQueries=" + warmQueries
+        + ", warmBytes=" + warmBytes
+        + "}";
+  }
+}
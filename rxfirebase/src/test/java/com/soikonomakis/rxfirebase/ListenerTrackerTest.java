@@ -0,0 +1,184 @@
+package com.soikonomakis.rxfirebase;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.functions.Actions;
+import rx.schedulers.Schedulers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class ListenerTrackerTest extends ApplicationTestCase {
+
+  private static final int SOAK_ITERATIONS = 5000;
+
+  private RxFirebase rxFirebase;
+  private ListenerTracker tracker;
+  private Query mockRef;
+  private Set<Object> attachedListeners;
+
+  @Before public void setUp() {
+    attachedListeners = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    mockRef = mock(Query.class);
+    Answer<Object> attach = new Answer<Object>() {
+      @Override public Object answer(InvocationOnMock invocation) {
+        Object listener = invocation.getArguments()[0];
+        attachedListeners.add(listener);
+        return listener;
+      }
+    };
+    Answer<Object> detach = new Answer<Object>() {
+      @Override public Object answer(InvocationOnMock invocation) {
+        attachedListeners.remove(invocation.getArguments()[0]);
+        return null;
+      }
+    };
+    doAnswer(attach).when(mockRef).addValueEventListener(any(ValueEventListener.class));
+    doAnswer(attach).when(mockRef).addListenerForSingleValueEvent(any(ValueEventListener.class));
+    doAnswer(attach).when(mockRef).addChildEventListener(any(ChildEventListener.class));
+    doAnswer(detach).when(mockRef).removeEventListener(any(ValueEventListener.class));
+    doAnswer(detach).when(mockRef).removeEventListener(any(ChildEventListener.class));
+
+    tracker = tracker(Long.MAX_VALUE);
+    rxFirebase = RxFirebase.getInstance();
+    rxFirebase.setListenerTracker(tracker);
+  }
+
+  @After public void destroy() throws NoSuchFieldException, IllegalAccessException {
+    resetSingleton(RxFirebase.class);
+  }
+
+  @Test public void testSubscriptionChurnDoesNotLeak() {
+    for (int i = 0; i < SOAK_ITERATIONS; i++) {
+      Subscription value = rxFirebase.observeValueEvent(mockRef).subscribe();
+      Subscription child = rxFirebase.observeChildAdded(mockRef).subscribe();
+      Subscription single = rxFirebase.observeSingleValue(mockRef).subscribe();
+      assertThat(tracker.getActiveListeners()).hasSize(3);
+
+      value.unsubscribe();
+      child.unsubscribe();
+      single.unsubscribe();
+    }
+
+    assertThat(attachedListeners).isEmpty();
+    assertThat(tracker.getActiveListeners()).isEmpty();
+    assertThat(tracker.getAttachedCount()).isEqualTo(3L * SOAK_ITERATIONS);
+    assertThat(tracker.getDetachedCount()).isEqualTo(3L * SOAK_ITERATIONS);
+    assertThat(tracker.getAttachesByCallSite()).hasSize(3);
+  }
+
+  @Test public void testRecordsCallSiteAndEvents() {
+    Subscription subscription = rxFirebase.observeValueEvent(mockRef).subscribe();
+    ValueEventListener listener = (ValueEventListener) attachedListeners.iterator().next();
+    listener.onDataChange(mock(DataSnapshot.class));
+    listener.onDataChange(mock(DataSnapshot.class));
+
+    List<ListenerRecord> records = tracker.getActiveListeners();
+    assertThat(records).hasSize(1);
+    assertThat(records.get(0).getKind()).isEqualTo("value");
+    assertThat(records.get(0).getEventCount()).isEqualTo(2);
+    assertThat(records.get(0).getCallSite()).contains("testRecordsCallSiteAndEvents");
+    subscription.unsubscribe();
+  }
+
+  @Test public void testCallSiteSkipsLibraryAndPlatformFrames() {
+    StackTraceElement[] stack = {
+        frame("com.soikonomakis.rxfirebase.RxFirebase", "observeValueEvent"),
+        frame("com.soikonomakis.rxfirebase.mirror.MirroredCollection", "connect"),
+        frame("rx.Observable", "subscribe"),
+        frame("java.util.concurrent.ThreadPoolExecutor", "runWorker"),
+        frame("android.os.Handler", "dispatchMessage"),
+        frame("com.example.app.TasksActivity", "onStart"),
+        frame("android.app.Activity", "performStart")
+    };
+
+    assertThat(new ListenerTracker(Long.MAX_VALUE).findCallSite(stack))
+        .isEqualTo("com.example.app.TasksActivity.onStart(Unknown Source)");
+  }
+
+  @Test public void testCallSiteIsCapturedOnTheCallingThread() throws InterruptedException {
+    final CountDownLatch subscribed = new CountDownLatch(1);
+    Subscription scheduled = rxFirebase.observeValueEvent(mockRef)
+        .subscribeOn(Schedulers.newThread())
+        .doOnSubscribe(new Action0() {
+          @Override public void call() {
+            subscribed.countDown();
+          }
+        })
+        .subscribe();
+    assertThat(subscribed.await(5, TimeUnit.SECONDS)).isTrue();
+    for (int i = 0; i < 500 && tracker.getActiveListeners().isEmpty(); i++) {
+      Thread.sleep(10);
+    }
+
+    List<ListenerRecord> records = tracker.getActiveListeners();
+    assertThat(records).hasSize(1);
+    assertThat(records.get(0).getCallSite())
+        .contains("testCallSiteIsCapturedOnTheCallingThread");
+    scheduled.unsubscribe();
+  }
+
+  @Test public void testFlagsListenerOutlivingThreshold() throws InterruptedException {
+    tracker = tracker(0);
+    rxFirebase.setListenerTracker(tracker);
+    Subscription subscription = rxFirebase.observeChildEvent(mockRef).subscribe();
+    Thread.sleep(5);
+
+    assertThat(tracker.findSuspects()).hasSize(1);
+    subscription.unsubscribe();
+    assertThat(tracker.findSuspects()).isEmpty();
+  }
+
+  @Test public void testFlagsListenerOfCollectedOwner() {
+    Object owner = new Object();
+    WeakReference<Object> ownerReference = new WeakReference<>(owner);
+    Subscription subscription = rxFirebase.observeValueEvent(mockRef)
+        .compose(tracker.<DataSnapshot>ownedBy(owner))
+        .subscribe(Actions.empty());
+    assertThat(tracker.findSuspects()).isEmpty();
+
+    owner = null;
+    for (int i = 0; i < 20 && ownerReference.get() != null; i++) {
+      System.gc();
+    }
+
+    assertThat(ownerReference.get()).isNull();
+    List<ListenerRecord> suspects = tracker.findSuspects();
+    assertThat(suspects).hasSize(1);
+    assertThat(suspects.get(0).isOwnerCollected()).isTrue();
+    subscription.unsubscribe();
+  }
+
+  /**
+   * Returns a tracker which, unlike the default one, reports the frames of the tests in
+   * this package as call sites
+   */
+  private static ListenerTracker tracker(long maxAgeMillis) {
+    return new ListenerTracker(maxAgeMillis, "rx.", "java.", "sun.", "jdk.internal.");
+  }
+
+  private static StackTraceElement frame(String className, String methodName) {
+    return new StackTraceElement(className, methodName, null, -1);
+  }
+}
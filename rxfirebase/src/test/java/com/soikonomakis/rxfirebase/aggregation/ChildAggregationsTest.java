@@ -0,0 +1,195 @@
+package com.soikonomakis.rxfirebase.aggregation;
+
+import com.google.firebase.database.DataSnapshot;
+import com.soikonomakis.rxfirebase.ApplicationTestCase;
+import com.soikonomakis.rxfirebase.FirebaseChildEvent;
+import com.soikonomakis.rxfirebase.FirebaseChildEvent.EventType;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import rx.functions.Func1;
+import rx.observers.TestSubscriber;
+import rx.subjects.PublishSubject;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ChildAggregationsTest extends ApplicationTestCase {
+
+  private static final Func1<DataSnapshot, Long> SCORE = new Func1<DataSnapshot, Long>() {
+    @Override public Long call(DataSnapshot dataSnapshot) {
+      return (Long) dataSnapshot.getValue();
+    }
+  };
+
+  private static final Func1<DataSnapshot, Number> NUMBER = new Func1<DataSnapshot, Number>() {
+    @Override public Number call(DataSnapshot dataSnapshot) {
+      return (Number) dataSnapshot.getValue();
+    }
+  };
+
+  private PublishSubject<FirebaseChildEvent> events;
+
+  @Before public void setUp() {
+    events = PublishSubject.create();
+  }
+
+  @Test public void testCount() {
+    TestSubscriber<Integer> testSubscriber = new TestSubscriber<>();
+    events.compose(ChildAggregations.count()).subscribe(testSubscriber);
+
+    events.onNext(event("a", 1L, EventType.ADDED));
+    events.onNext(event("b", 2L, EventType.ADDED));
+    events.onNext(event("a", 3L, EventType.CHANGED));
+    events.onNext(event("a", 3L, EventType.MOVED));
+    events.onNext(event("b", 2L, EventType.REMOVED));
+
+    testSubscriber.assertNoErrors();
+    testSubscriber.assertReceivedOnNext(Arrays.asList(1, 2, 1));
+  }
+
+  @Test public void testCountWithPredicate() {
+    TestSubscriber<Integer> testSubscriber = new TestSubscriber<>();
+    events.compose(ChildAggregations.count(new Func1<DataSnapshot, Boolean>() {
+      @Override public Boolean call(DataSnapshot dataSnapshot) {
+        return SCORE.call(dataSnapshot) > 10;
+      }
+    })).subscribe(testSubscriber);
+
+    events.onNext(event("a", 1L, EventType.ADDED));
+    events.onNext(event("b", 20L, EventType.ADDED));
+    events.onNext(event("a", 30L, EventType.CHANGED));
+    events.onNext(event("b", 5L, EventType.CHANGED));
+
+    testSubscriber.assertReceivedOnNext(Arrays.asList(0, 1, 2, 1));
+  }
+
+  @Test public void testSum() {
+    TestSubscriber<Number> testSubscriber = new TestSubscriber<>();
+    events.compose(ChildAggregations.sum(SCORE)).subscribe(testSubscriber);
+
+    events.onNext(event("a", 1L, EventType.ADDED));
+    events.onNext(event("b", 2L, EventType.ADDED));
+    events.onNext(event("a", 5L, EventType.CHANGED));
+    events.onNext(event("b", 2L, EventType.REMOVED));
+    events.onNext(event("a", 5L, EventType.REMOVED));
+
+    testSubscriber.assertReceivedOnNext(Arrays.<Number>asList(1L, 3L, 7L, 5L, 0L));
+  }
+
+  @Test public void testSumOfLargeIntegersIsExact() {
+    TestSubscriber<Number> testSubscriber = new TestSubscriber<>();
+    events.compose(ChildAggregations.sum(SCORE)).subscribe(testSubscriber);
+
+    events.onNext(event("a", (1L << 53) + 1, EventType.ADDED));
+    events.onNext(event("b", 1L, EventType.ADDED));
+
+    testSubscriber.assertReceivedOnNext(Arrays.<Number>asList((1L << 53) + 1, (1L << 53) + 2));
+  }
+
+  @Test public void testSumBeyondLongRangeIsExact() {
+    TestSubscriber<Number> testSubscriber = new TestSubscriber<>();
+    events.compose(ChildAggregations.sum(NUMBER)).subscribe(testSubscriber);
+
+    events.onNext(fraction("a", 5e18, EventType.ADDED));
+    events.onNext(fraction("b", 5e18, EventType.ADDED));
+    events.onNext(event("c", Long.MAX_VALUE, EventType.ADDED));
+    events.onNext(fraction("a", 5e18, EventType.REMOVED));
+    events.onNext(event("c", Long.MAX_VALUE, EventType.REMOVED));
+
+    testSubscriber.assertReceivedOnNext(Arrays.<Number>asList(
+        5000000000000000000L,
+        new BigInteger("10000000000000000000"),
+        new BigInteger("10000000000000000000").add(BigInteger.valueOf(Long.MAX_VALUE)),
+        new BigInteger("5000000000000000000").add(BigInteger.valueOf(Long.MAX_VALUE)),
+        5000000000000000000L));
+  }
+
+  @Test public void testNegativeSumBeyondLongRangeIsExact() {
+    TestSubscriber<Number> testSubscriber = new TestSubscriber<>();
+    events.compose(ChildAggregations.sum(SCORE)).subscribe(testSubscriber);
+
+    events.onNext(event("a", Long.MIN_VALUE, EventType.ADDED));
+    events.onNext(event("b", -1L, EventType.ADDED));
+    events.onNext(event("a", Long.MIN_VALUE, EventType.REMOVED));
+
+    testSubscriber.assertReceivedOnNext(Arrays.<Number>asList(
+        Long.MIN_VALUE,
+        BigInteger.valueOf(Long.MIN_VALUE).subtract(BigInteger.ONE),
+        -1L));
+  }
+
+  @Test public void testSumOfFractionsDoesNotDrift() {
+    TestSubscriber<Number> testSubscriber = new TestSubscriber<>();
+    events.compose(ChildAggregations.sum(NUMBER)).subscribe(testSubscriber);
+
+    events.onNext(event("whole", 1000000L, EventType.ADDED));
+    events.onNext(fraction("a", 0.1, EventType.ADDED));
+    events.onNext(fraction("b", 0.2, EventType.ADDED));
+    for (int i = 0; i < 100000; i++) {
+      events.onNext(fraction("a", i % 2 == 0 ? 1e-7 : 0.1, EventType.CHANGED));
+    }
+
+    List<Number> sums = testSubscriber.getOnNextEvents();
+    assertThat(sums.get(sums.size() - 1).doubleValue()).isEqualTo(1000000.3);
+
+    events.onNext(fraction("a", 0.1, EventType.REMOVED));
+    events.onNext(fraction("b", 0.2, EventType.REMOVED));
+    assertThat(sums.get(sums.size() - 1)).isEqualTo((Number) 1000000L);
+  }
+
+  @Test public void testMinAndMaxWithDuplicates() {
+    TestSubscriber<Long> min = new TestSubscriber<>();
+    TestSubscriber<Long> max = new TestSubscriber<>();
+    events.compose(ChildAggregations.min(SCORE)).subscribe(min);
+    events.compose(ChildAggregations.max(SCORE)).subscribe(max);
+
+    events.onNext(event("a", 3L, EventType.ADDED));
+    events.onNext(event("b", 3L, EventType.ADDED));
+    events.onNext(event("c", 9L, EventType.ADDED));
+    events.onNext(event("a", 3L, EventType.REMOVED));
+    events.onNext(event("b", 3L, EventType.REMOVED));
+    events.onNext(event("c", 9L, EventType.REMOVED));
+
+    min.assertReceivedOnNext(Arrays.asList(3L, 9L, null));
+    max.assertReceivedOnNext(Arrays.asList(3L, 9L, null));
+  }
+
+  @Test public void testTop() {
+    TestSubscriber<List<KeyedValue<Long>>> testSubscriber = new TestSubscriber<>();
+    events.compose(ChildAggregations.top(2, SCORE)).subscribe(testSubscriber);
+
+    events.onNext(event("a", 10L, EventType.ADDED));
+    events.onNext(event("b", 30L, EventType.ADDED));
+    events.onNext(event("c", 5L, EventType.ADDED));
+    events.onNext(event("c", 50L, EventType.CHANGED));
+    events.onNext(event("b", 30L, EventType.REMOVED));
+
+    testSubscriber.assertReceivedOnNext(Arrays.asList(
+        Collections.singletonList(new KeyedValue<>("a", 10L)),
+        Arrays.asList(new KeyedValue<>("b", 30L), new KeyedValue<>("a", 10L)),
+        Arrays.asList(new KeyedValue<>("c", 50L), new KeyedValue<>("b", 30L)),
+        Arrays.asList(new KeyedValue<>("c", 50L), new KeyedValue<>("a", 10L))));
+  }
+
+  private static FirebaseChildEvent fraction(String key, Double value, EventType eventType) {
+    DataSnapshot dataSnapshot = mock(DataSnapshot.class);
+    when(dataSnapshot.getKey()).thenReturn(key);
+    when(dataSnapshot.getValue()).thenReturn(value);
+    return new FirebaseChildEvent(dataSnapshot, eventType);
+  }
+
+  private static FirebaseChildEvent event(String key, Long value, EventType eventType) {
+    DataSnapshot dataSnapshot = mock(DataSnapshot.class);
+    when(dataSnapshot.getKey()).thenReturn(key);
+    when(dataSnapshot.getValue()).thenReturn(value);
+    return new FirebaseChildEvent(dataSnapshot, eventType);
+  }
+}
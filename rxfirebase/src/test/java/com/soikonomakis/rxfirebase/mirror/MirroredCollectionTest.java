@@ -0,0 +1,216 @@
+package com.soikonomakis.rxfirebase.mirror;
+
+import com.google.firebase.database.DataSnapshot;
+import com.soikonomakis.rxfirebase.ApplicationTestCase;
+import com.soikonomakis.rxfirebase.FirebaseChildEvent;
+import com.soikonomakis.rxfirebase.FirebaseChildEvent.EventType;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import rx.Subscription;
+import rx.functions.Func1;
+import rx.observers.TestSubscriber;
+import rx.subjects.PublishSubject;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MirroredCollectionTest extends ApplicationTestCase {
+
+  private static final Func1<DataSnapshot, Task> MAPPER = new Func1<DataSnapshot, Task>() {
+    @Override public Task call(DataSnapshot dataSnapshot) {
+      return (Task) dataSnapshot.getValue();
+    }
+  };
+
+  private static final Func1<Task, String> OWNER = new Func1<Task, String>() {
+    @Override public String call(Task task) {
+      return task.owner;
+    }
+  };
+
+  private static final Func1<Task, Long> DUE = new Func1<Task, Long>() {
+    @Override public Long call(Task task) {
+      return task.due;
+    }
+  };
+
+  private PublishSubject<FirebaseChildEvent> events;
+  private MirroredCollection<Task> tasks;
+  private Subscription subscription;
+
+  @Before public void setUp() {
+    events = PublishSubject.create();
+    tasks = new MirroredCollection<>(MAPPER);
+    subscription = tasks.connect(events);
+  }
+
+  @Test public void testHashIndexFollowsChanges() {
+    HashIndex<Task, String> byOwner = tasks.addHashIndex(OWNER);
+    Task a = new Task("alice", 1L);
+    Task b = new Task("bob", 2L);
+    Task movedToAlice = new Task("alice", 2L);
+
+    TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+    byOwner.observeEqualTo("alice").subscribe(testSubscriber);
+
+    events.onNext(event("a", a, EventType.ADDED));
+    events.onNext(event("b", b, EventType.ADDED));
+    events.onNext(event("b", movedToAlice, EventType.CHANGED));
+    events.onNext(event("a", a, EventType.REMOVED));
+
+    testSubscriber.assertNoErrors();
+    testSubscriber.assertReceivedOnNext(Arrays.asList(
+        Collections.<Task>emptyList(),
+        Collections.singletonList(a),
+        Arrays.asList(a, movedToAlice),
+        Collections.singletonList(movedToAlice)));
+  }
+
+  @Test public void testSortedIndexRange() {
+    Task early = new Task("alice", 1L);
+    Task middle = new Task("bob", 5L);
+    Task late = new Task("carol", 9L);
+    events.onNext(event("late", late, EventType.ADDED));
+    events.onNext(event("early", early, EventType.ADDED));
+    events.onNext(event("middle", middle, EventType.ADDED));
+
+    // indexes declared after the data arrived are backfilled
+    SortedIndex<Task, Long> byDue = tasks.addSortedIndex(DUE);
+
+    TestSubscriber<List<Task>> range = new TestSubscriber<>();
+    byDue.observeRange(2L, null).subscribe(range);
+    TestSubscriber<List<Task>> first = new TestSubscriber<>();
+    byDue.observeFirst(2).subscribe(first);
+
+    Task lateRescheduled = new Task("carol", 0L);
+    events.onNext(event("late", lateRescheduled, EventType.CHANGED));
+
+    range.assertReceivedOnNext(Arrays.asList(
+        Arrays.asList(middle, late),
+        Collections.singletonList(middle)));
+    first.assertReceivedOnNext(Arrays.asList(
+        Arrays.asList(early, middle),
+        Arrays.asList(lateRescheduled, early)));
+  }
+
+  @Test public void testChangedItemKeepsItsPositionInBucket() {
+    HashIndex<Task, String> byOwner = tasks.addHashIndex(OWNER);
+    Task a = new Task("alice", 1L);
+    Task b = new Task("alice", 2L);
+    Task aRescheduled = new Task("alice", 3L);
+    events.onNext(event("a", a, EventType.ADDED));
+    events.onNext(event("b", b, EventType.ADDED));
+    events.onNext(event("a", aRescheduled, EventType.CHANGED));
+
+    TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+    byOwner.observeEqualTo("alice").subscribe(testSubscriber);
+
+    testSubscriber.assertReceivedOnNext(Collections.singletonList(Arrays.asList(aRescheduled, b)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullLookupIsRejected() {
+    tasks.addHashIndex(OWNER).observeEqualTo(null);
+  }
+
+  @Test public void testUnrelatedChangeDoesNotEmit() {
+    HashIndex<Task, String> byOwner = tasks.addHashIndex(OWNER);
+    TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+    byOwner.observeEqualTo("alice").subscribe(testSubscriber);
+
+    events.onNext(event("b", new Task("bob", 1L), EventType.ADDED));
+    events.onNext(event("b", new Task("bob", 2L), EventType.CHANGED));
+
+    testSubscriber.assertValueCount(1);
+    assertThat(tasks.size()).isEqualTo(1);
+  }
+
+  @Test public void testUnsubscribeStopsMirroring() {
+    subscription.unsubscribe();
+    events.onNext(event("a", new Task("alice", 1L), EventType.ADDED));
+
+    assertThat(tasks.size()).isEqualTo(0);
+  }
+
+  @Test public void testReconnectDropsStaleItems() {
+    HashIndex<Task, String> byOwner = tasks.addHashIndex(OWNER);
+    TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+    byOwner.observeEqualTo("alice").subscribe(testSubscriber);
+    Task deletedWhileOffline = new Task("alice", 1L);
+    Task kept = new Task("alice", 2L);
+    events.onNext(event("a", deletedWhileOffline, EventType.ADDED));
+    events.onNext(event("b", kept, EventType.ADDED));
+    subscription.unsubscribe();
+
+    PublishSubject<FirebaseChildEvent> reconnected = PublishSubject.create();
+    tasks.connect(reconnected);
+    reconnected.onNext(event("b", kept, EventType.ADDED));
+
+    assertThat(tasks.size()).isEqualTo(1);
+    testSubscriber.assertReceivedOnNext(Arrays.asList(
+        Collections.<Task>emptyList(),
+        Collections.singletonList(deletedWhileOffline),
+        Arrays.asList(deletedWhileOffline, kept),
+        Collections.<Task>emptyList(),
+        Collections.singletonList(kept)));
+  }
+
+  @Test public void testQueriesRecoverFromConnectionError() {
+    TestSubscriber<Throwable> errors = new TestSubscriber<>();
+    tasks.observeErrors().subscribe(errors);
+    TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+    tasks.observeAll().subscribe(testSubscriber);
+    Task a = new Task("alice", 1L);
+    Task b = new Task("bob", 2L);
+    events.onNext(event("a", a, EventType.ADDED));
+    Exception cancelled = new Exception("Permission denied");
+    events.onError(cancelled);
+
+    PublishSubject<FirebaseChildEvent> reconnected = PublishSubject.create();
+    tasks.connect(reconnected);
+    reconnected.onNext(event("b", b, EventType.ADDED));
+
+    errors.assertReceivedOnNext(Collections.<Throwable>singletonList(cancelled));
+    testSubscriber.assertNoErrors();
+    testSubscriber.assertReceivedOnNext(Arrays.asList(
+        Collections.<Task>emptyList(),
+        Collections.singletonList(a),
+        Collections.<Task>emptyList(),
+        Collections.singletonList(b)));
+    TestSubscriber<List<Task>> lateSubscriber = new TestSubscriber<>();
+    tasks.observeAll().subscribe(lateSubscriber);
+    lateSubscriber.assertNoErrors();
+    lateSubscriber.assertReceivedOnNext(
+        Collections.<List<Task>>singletonList(Collections.singletonList(b)));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testSecondActiveConnectionIsRejected() {
+    tasks.connect(PublishSubject.<FirebaseChildEvent>create());
+  }
+
+  private static FirebaseChildEvent event(String key, Task task, EventType eventType) {
+    DataSnapshot dataSnapshot = mock(DataSnapshot.class);
+    when(dataSnapshot.getKey()).thenReturn(key);
+    when(dataSnapshot.getValue()).thenReturn(task);
+    return new FirebaseChildEvent(dataSnapshot, eventType);
+  }
+
+  private static class Task {
+
+    final String owner;
+    final Long due;
+
+    Task(String owner, Long due) {
+      this.owner = owner;
+      this.due = due;
+    }
+  }
+}
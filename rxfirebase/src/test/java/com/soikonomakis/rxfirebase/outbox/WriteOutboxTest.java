@@ -0,0 +1,383 @@
+package com.soikonomakis.rxfirebase.outbox;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseException;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+import com.soikonomakis.rxfirebase.ApplicationTestCase;
+import com.soikonomakis.rxfirebase.RxFirebase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class WriteOutboxTest extends ApplicationTestCase {
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File file;
+  private DatabaseReference root;
+  private TestScheduler scheduler;
+
+  @Before public void setUp() throws IOException {
+    file = new File(temporaryFolder.getRoot(), "outbox");
+    root = mock(DatabaseReference.class);
+    scheduler = new TestScheduler();
+  }
+
+  @After public void destroy() throws NoSuchFieldException, IllegalAccessException {
+    resetSingleton(RxFirebase.class);
+  }
+
+  @Test public void testSupersededWritesAreCompactedAway() throws IOException {
+    WriteOutbox outbox = open(500);
+    outbox.set("users/alice/status", "online");
+    outbox.set("users/alice/status", "away");
+    outbox.set("users/bob/name", "Bob");
+    outbox.set("users/bob", null);
+
+    assertThat(outbox.getPendingCount()).isEqualTo(2);
+    Map<String, Object> update = flushOnce(outbox);
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("users/alice/status", "away");
+    expected.put("users/bob", null);
+    assertThat(update).isEqualTo(expected);
+    assertThat(outbox.getPendingCount()).isEqualTo(0);
+  }
+
+  @Test public void testWritesBelowPendingPathAreMerged() throws IOException {
+    WriteOutbox outbox = open(500);
+    outbox.set("posts/1", Collections.<String, Object>singletonMap("title", "Draft"));
+    outbox.set("posts/1/body", "Text");
+    outbox.set("posts/1/title", "Final");
+
+    Map<String, Object> post = new HashMap<>();
+    post.put("title", "Final");
+    post.put("body", "Text");
+    assertThat(flushOnce(outbox)).isEqualTo(Collections.<String, Object>singletonMap("posts/1", post));
+  }
+
+  @Test public void testWritesBelowPendingListAreMerged() throws IOException {
+    WriteOutbox outbox = open(500);
+    outbox.set("posts/1/tags", Arrays.<Object>asList("a", "b", "c"));
+    outbox.set("posts/1/tags/1", "B");
+
+    Map<String, Object> tags = new HashMap<>();
+    tags.put("0", "a");
+    tags.put("1", "B");
+    tags.put("2", "c");
+    assertThat(flushOnce(outbox)).isEqualTo(Collections.<String, Object>singletonMap("posts/1/tags", tags));
+  }
+
+  @Test public void testPendingWritesSurviveRestart() throws IOException {
+    WriteOutbox outbox = open(500);
+    outbox.set("a", 1L);
+    outbox.set("b", Arrays.<Object>asList("x", true, 2.5));
+    outbox.set("a", 2L);
+    outbox.close();
+
+    WriteOutbox reopened = open(500);
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("a", 2L);
+    expected.put("b", Arrays.<Object>asList("x", true, 2.5));
+    assertThat(flushOnce(reopened)).isEqualTo(expected);
+    reopened.close();
+
+    assertThat(open(500).getPendingCount()).isEqualTo(0);
+  }
+
+  @Test public void testTornTailIsDropped() throws IOException {
+    WriteOutbox outbox = open(500);
+    outbox.set("a", "kept");
+    outbox.set("b", "torn");
+    outbox.close();
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(raf.length() - 3);
+    raf.close();
+
+    WriteOutbox reopened = open(500);
+    assertThat(reopened.getPendingCount()).isEqualTo(1);
+    assertThat(flushOnce(reopened)).isEqualTo(Collections.<String, Object>singletonMap("a", "kept"));
+  }
+
+  @Test public void testReplaysInBatchesInWriteOrder() throws IOException {
+    WriteOutbox outbox = open(2);
+    outbox.set("c", 1L);
+    outbox.set("a", 2L);
+    outbox.set("b", 3L);
+
+    TestSubscriber<Integer> testSubscriber = new TestSubscriber<>();
+    outbox.flush().subscribe(testSubscriber);
+    ArgumentCaptor<Map> first = ArgumentCaptor.forClass(Map.class);
+    ArgumentCaptor<DatabaseReference.CompletionListener> firstListener =
+        ArgumentCaptor.forClass(DatabaseReference.CompletionListener.class);
+    verify(root).updateChildren(first.capture(), firstListener.capture());
+    assertThat(first.getValue().keySet()).containsOnly("c", "a");
+    firstListener.getValue().onComplete(null, root);
+
+    ArgumentCaptor<Map> second = ArgumentCaptor.forClass(Map.class);
+    ArgumentCaptor<DatabaseReference.CompletionListener> secondListener =
+        ArgumentCaptor.forClass(DatabaseReference.CompletionListener.class);
+    verify(root, times(2)).updateChildren(second.capture(), secondListener.capture());
+    assertThat(second.getValue().keySet()).containsOnly("b");
+    secondListener.getValue().onComplete(null, root);
+
+    testSubscriber.assertReceivedOnNext(Arrays.asList(2, 1));
+    testSubscriber.assertCompleted();
+  }
+
+  @Test public void testLogIsCompactedInBackground() throws IOException {
+    WriteOutbox outbox = open(500);
+    for (int i = 0; i < 200; i++) {
+      outbox.set("counter", (long) i);
+    }
+    long uncompacted = outbox.getLogBytes();
+
+    scheduler.triggerActions();
+
+    assertThat(outbox.getLogBytes()).isLessThan(uncompacted / 50);
+    assertThat(outbox.getPendingCount()).isEqualTo(1);
+    outbox.close();
+    assertThat(flushOnce(open(500))).isEqualTo(Collections.<String, Object>singletonMap("counter", 199L));
+  }
+
+  @Test public void testRecordsLoggedDuringCompactionAreCarriedOver() throws IOException {
+    OutboxLog log = new OutboxLog(file);
+    log.open();
+    log.appendPut(1, "a", 1L);
+    log.appendPut(2, "a", 2L);
+    OutboxLog.Rewrite rewrite = log.startRewrite(Collections.singletonList(
+        new OutboxLog.Record(OutboxLog.PUT, 2, "a", 2L, 0)));
+
+    log.appendPut(3, "b", 3L);
+    rewrite.write();
+    log.appendAck(2, "a");
+    rewrite.commit();
+    log.appendPut(4, "c", 4L);
+    log.close();
+
+    assertThat(log.getRecords()).isEqualTo(4);
+    WriteOutbox reopened = open(500);
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("b", 3L);
+    expected.put("c", 4L);
+    assertThat(flushOnce(reopened)).isEqualTo(expected);
+  }
+
+  @Test public void testAbortedCompactionKeepsTheLog() throws IOException {
+    WriteOutbox outbox = open(500);
+    outbox.set("a", 1L);
+    outbox.close();
+    OutboxLog log = new OutboxLog(file);
+    log.open();
+    OutboxLog.Rewrite rewrite = log.startRewrite(Collections.<OutboxLog.Record>emptyList());
+    rewrite.write();
+    rewrite.abort();
+    log.close();
+
+    assertThat(new File(file.getPath() + ".compact").exists()).isFalse();
+    assertThat(open(500).getPendingCount()).isEqualTo(1);
+  }
+
+  @Test public void testCloseCancelsScheduledCompaction() throws IOException {
+    WriteOutbox outbox = open(500);
+    for (int i = 0; i < 200; i++) {
+      outbox.set("counter", (long) i);
+    }
+    outbox.close();
+    WriteOutbox reopened = open(500);
+    reopened.set("other", "kept");
+
+    scheduler.triggerActions();
+    outbox.compact();
+    reopened.close();
+
+    assertThat(open(500).getPendingCount()).isEqualTo(2);
+  }
+
+  @Test public void testRejectedWritesAreDroppedAndReported() throws IOException {
+    WriteOutbox outbox = open(500);
+    TestSubscriber<RejectedWrite> rejected = new TestSubscriber<>();
+    outbox.observeRejected().subscribe(rejected);
+    outbox.set("a", 1L);
+    outbox.set("b", 2L);
+    outbox.set("c", 3L);
+
+    TestSubscriber<Integer> testSubscriber = new TestSubscriber<>();
+    outbox.flush().subscribe(testSubscriber);
+    assertThat(completeUpdate(1, error(DatabaseError.PERMISSION_DENIED)).keySet())
+        .containsOnly("a", "b", "c");
+    assertThat(completeUpdate(2, null).keySet()).containsOnly("a");
+    assertThat(completeUpdate(3, error(DatabaseError.PERMISSION_DENIED)).keySet())
+        .containsOnly("b");
+    assertThat(completeUpdate(4, null).keySet()).containsOnly("c");
+
+    testSubscriber.assertReceivedOnNext(Arrays.asList(1, 1));
+    testSubscriber.assertCompleted();
+    assertThat(rejected.getOnNextEvents()).hasSize(1);
+    assertThat(rejected.getOnNextEvents().get(0).getPath()).isEqualTo("b");
+    assertThat(rejected.getOnNextEvents().get(0).getValue()).isEqualTo(2L);
+    outbox.close();
+    assertThat(open(500).getPendingCount()).isEqualTo(0);
+  }
+
+  @Test public void testInvalidKeysAreRejectedUpfront() throws IOException {
+    WriteOutbox outbox = open(500);
+    for (String path : Arrays.asList("users/a.b", "users/#1", ".info/connected", "a/$b",
+        "a/[0]")) {
+      try {
+        outbox.set(path, "value");
+        throw new AssertionError("Accepted " + path);
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+    try {
+      outbox.set("users/alice", Collections.singletonMap("a/b", "value"));
+      throw new AssertionError("Accepted the key a/b");
+    } catch (IllegalArgumentException expected) {
+    }
+    outbox.set("counters/c", Collections.singletonMap(".sv", "timestamp"));
+
+    assertThat(outbox.getPendingCount()).isEqualTo(1);
+    outbox.close();
+    assertThat(open(500).getPendingCount()).isEqualTo(1);
+  }
+
+  @Test public void testWritesRefusedByTheClientAreRejected() throws IOException {
+    WriteOutbox outbox = open(500);
+    doAnswer(new Answer<Void>() {
+      @Override public Void answer(InvocationOnMock invocation) {
+        if (((Map<?, ?>) invocation.getArguments()[0]).containsKey("b")) {
+          throw new DatabaseException("Invalid key");
+        }
+        return null;
+      }
+    }).when(root).updateChildren(anyMap(), any(DatabaseReference.CompletionListener.class));
+    TestSubscriber<RejectedWrite> rejected = new TestSubscriber<>();
+    outbox.observeRejected().subscribe(rejected);
+    outbox.set("a", 1L);
+    outbox.set("b", 2L);
+    outbox.set("c", 3L);
+
+    TestSubscriber<Integer> testSubscriber = new TestSubscriber<>();
+    outbox.flush().subscribe(testSubscriber);
+    assertThat(completeUpdate(2, null).keySet()).containsOnly("a");
+    assertThat(completeUpdate(4, null).keySet()).containsOnly("c");
+
+    testSubscriber.assertReceivedOnNext(Arrays.asList(1, 1));
+    testSubscriber.assertCompleted();
+    assertThat(rejected.getOnNextEvents()).hasSize(1);
+    assertThat(rejected.getOnNextEvents().get(0).getPath()).isEqualTo("b");
+    assertThat(rejected.getOnNextEvents().get(0).getError().getCause())
+        .isInstanceOf(DatabaseException.class);
+
+    // the replay is not stuck
+    outbox.set("d", 4L);
+    outbox.flush().subscribe(new TestSubscriber<Integer>());
+    assertThat(completeUpdate(5, null).keySet()).containsOnly("d");
+  }
+
+  @Test public void testFailedReplayIsRetriedWithBackoff() throws IOException {
+    WriteOutbox outbox = open(500);
+    ValueEventListener connection = start(outbox);
+    connection.onDataChange(snapshot(true));
+
+    outbox.set("a", 1L);
+    completeUpdate(1, error(DatabaseError.NETWORK_ERROR));
+    outbox.set("b", 2L);
+    scheduler.advanceTimeBy(WriteOutbox.MIN_RETRY_DELAY_MILLIS - 1, TimeUnit.MILLISECONDS);
+    verify(root, times(1)).updateChildren(anyMap(),
+        any(DatabaseReference.CompletionListener.class));
+
+    scheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+    assertThat(completeUpdate(2, error(DatabaseError.NETWORK_ERROR)).keySet())
+        .containsOnly("a", "b");
+    scheduler.advanceTimeBy(2 * WriteOutbox.MIN_RETRY_DELAY_MILLIS - 1, TimeUnit.MILLISECONDS);
+    verify(root, times(2)).updateChildren(anyMap(),
+        any(DatabaseReference.CompletionListener.class));
+
+    // reconnecting retries right away
+    connection.onDataChange(snapshot(false));
+    connection.onDataChange(snapshot(true));
+    completeUpdate(3, null);
+    assertThat(outbox.getPendingCount()).isEqualTo(0);
+  }
+
+  private WriteOutbox open(int maxBatch) throws IOException {
+    root = mock(DatabaseReference.class);
+    return new WriteOutbox(file, root, maxBatch, scheduler);
+  }
+
+  /**
+   * Completes the update sent as the given call and returns it
+   */
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> completeUpdate(int call, DatabaseError error) {
+    ArgumentCaptor<Map> update = ArgumentCaptor.forClass(Map.class);
+    ArgumentCaptor<DatabaseReference.CompletionListener> listener =
+        ArgumentCaptor.forClass(DatabaseReference.CompletionListener.class);
+    verify(root, times(call)).updateChildren(update.capture(), listener.capture());
+    listener.getValue().onComplete(error, root);
+    return update.getValue();
+  }
+
+  private ValueEventListener start(WriteOutbox outbox) {
+    DatabaseReference connectedRef = mock(DatabaseReference.class);
+    when(root.getRoot()).thenReturn(root);
+    when(root.child(WriteOutbox.CONNECTED)).thenReturn(connectedRef);
+    outbox.start();
+    ArgumentCaptor<ValueEventListener> listener = ArgumentCaptor.forClass(ValueEventListener.class);
+    verify(connectedRef).addValueEventListener(listener.capture());
+    return listener.getValue();
+  }
+
+  private static DataSnapshot snapshot(Object value) {
+    DataSnapshot dataSnapshot = mock(DataSnapshot.class);
+    when(dataSnapshot.getValue()).thenReturn(value);
+    return dataSnapshot;
+  }
+
+  private static DatabaseError error(int code) {
+    DatabaseError error = mock(DatabaseError.class);
+    when(error.getCode()).thenReturn(code);
+    return error;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> flushOnce(WriteOutbox outbox) {
+    outbox.flush().subscribe(new TestSubscriber<Integer>());
+    ArgumentCaptor<Map> update = ArgumentCaptor.forClass(Map.class);
+    ArgumentCaptor<DatabaseReference.CompletionListener> listener =
+        ArgumentCaptor.forClass(DatabaseReference.CompletionListener.class);
+    verify(root).updateChildren(update.capture(), listener.capture());
+    listener.getValue().onComplete(null, root);
+    return update.getValue();
+  }
+}
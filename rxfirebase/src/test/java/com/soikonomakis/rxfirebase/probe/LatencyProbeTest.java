@@ -0,0 +1,251 @@
+package com.soikonomakis.rxfirebase.probe;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+import com.soikonomakis.rxfirebase.ApplicationTestCase;
+import com.soikonomakis.rxfirebase.RxFirebase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LatencyProbeTest extends ApplicationTestCase {
+
+  private static final long OFFSET = 250;
+
+  private DatabaseReference probesRef;
+  private DatabaseReference offsetRef;
+  private DatabaseReference probeRef;
+  private TestScheduler scheduler;
+  private LatencyProbe latencyProbe;
+
+  @Before public void setUp() {
+    probesRef = mock(DatabaseReference.class);
+    offsetRef = mock(DatabaseReference.class);
+    probeRef = mock(DatabaseReference.class);
+    DatabaseReference root = mock(DatabaseReference.class);
+    when(probesRef.getRoot()).thenReturn(root);
+    when(root.child(LatencyProbe.SERVER_TIME_OFFSET)).thenReturn(offsetRef);
+    when(probesRef.push()).thenReturn(probeRef);
+    doAnswer(new Answer<Object>() {
+      @Override public Object answer(InvocationOnMock invocation) {
+        return invocation.getArguments()[0];
+      }
+    }).when(probeRef).addValueEventListener(any(ValueEventListener.class));
+
+    scheduler = new TestScheduler();
+    latencyProbe = new LatencyProbe(probesRef, "eu", 1000, scheduler);
+  }
+
+  @After public void destroy() throws NoSuchFieldException, IllegalAccessException {
+    resetSingleton(RxFirebase.class);
+  }
+
+  @Test public void testProbeMeasuresAckAndEcho() {
+    TestSubscriber<ProbeResult> testSubscriber = new TestSubscriber<>();
+    latencyProbe.probe().subscribe(testSubscriber);
+    deliverOffset();
+
+    ValueEventListener listener = captureProbeListener();
+    long estimated = System.currentTimeMillis() + OFFSET;
+    listener.onDataChange(probeSnapshot(estimated));
+    acknowledge();
+    testSubscriber.assertNoValues();
+
+    listener.onDataChange(probeSnapshot(estimated + 1));
+
+    testSubscriber.assertNoErrors();
+    testSubscriber.assertValueCount(1);
+    testSubscriber.assertCompleted();
+    ProbeResult result = testSubscriber.getOnNextEvents().get(0);
+    assertThat(result.getServerTimeOffsetMillis()).isEqualTo(OFFSET);
+    assertThat(result.getEchoMillis()).isGreaterThanOrEqualTo(result.getAckMillis());
+    assertThat(result.getUploadMillis()).isNotEqualTo(ProbeResult.UNKNOWN);
+    assertThat(latencyProbe.getAckHistogram().getCount()).isEqualTo(1);
+    assertThat(latencyProbe.getEchoHistogram().getCount()).isEqualTo(1);
+    verify(probeRef).removeValue();
+  }
+
+  @Test public void testProbeWithoutConfirmedEventTimesOut() {
+    TestSubscriber<ProbeResult> testSubscriber = new TestSubscriber<>();
+    latencyProbe.probe().subscribe(testSubscriber);
+    deliverOffset();
+    captureProbeListener().onDataChange(probeSnapshot(System.currentTimeMillis()));
+    acknowledge();
+
+    scheduler.advanceTimeBy(999, TimeUnit.MILLISECONDS);
+    testSubscriber.assertNoValues();
+    scheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+
+    testSubscriber.assertValueCount(1);
+    assertThat(testSubscriber.getOnNextEvents().get(0).getEchoMillis())
+        .isEqualTo(ProbeResult.UNKNOWN);
+    assertThat(latencyProbe.getEchoHistogram().getCount()).isEqualTo(0);
+  }
+
+  @Test public void testRemoteLatencyListensToRecentProbesOnly() {
+    Query ordered = mock(Query.class);
+    Query recent = mock(Query.class);
+    when(probesRef.orderByChild(LatencyProbe.SERVER_TIME)).thenReturn(ordered);
+    when(ordered.startAt(anyDouble())).thenReturn(recent);
+    long before = System.currentTimeMillis();
+
+    latencyProbe.observeRemoteLatency().subscribe(new TestSubscriber<Long>());
+    deliverOffset();
+
+    ArgumentCaptor<Double> startAt = ArgumentCaptor.forClass(Double.class);
+    verify(ordered).startAt(startAt.capture());
+    assertThat(startAt.getValue()).isGreaterThanOrEqualTo((double) before + OFFSET);
+    verify(recent).addChildEventListener(any(ChildEventListener.class));
+  }
+
+  @Test public void testRemoveStaleProbes() {
+    Query ordered = mock(Query.class);
+    Query stale = mock(Query.class);
+    when(probesRef.orderByChild(LatencyProbe.SERVER_TIME)).thenReturn(ordered);
+    when(ordered.endAt(anyDouble())).thenReturn(stale);
+    long before = System.currentTimeMillis();
+
+    TestSubscriber<Integer> testSubscriber = new TestSubscriber<>();
+    latencyProbe.removeStaleProbes().subscribe(testSubscriber);
+    deliverOffset();
+    ArgumentCaptor<Double> endAt = ArgumentCaptor.forClass(Double.class);
+    verify(ordered).endAt(endAt.capture());
+    assertThat(endAt.getValue()).isLessThanOrEqualTo(
+        (double) System.currentTimeMillis() + OFFSET - LatencyProbe.STALE_PROBE_MILLIS)
+        .isGreaterThanOrEqualTo((double) before + OFFSET - LatencyProbe.STALE_PROBE_MILLIS);
+    ArgumentCaptor<ValueEventListener> listener = ArgumentCaptor.forClass(ValueEventListener.class);
+    verify(stale).addListenerForSingleValueEvent(listener.capture());
+    List<DataSnapshot> children = Arrays.asList(keyed("p1"), keyed("p2"));
+    DataSnapshot probes = mock(DataSnapshot.class);
+    when(probes.getChildren()).thenReturn(children);
+    listener.getValue().onDataChange(probes);
+
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("p1", null);
+    expected.put("p2", null);
+    ArgumentCaptor<DatabaseReference.CompletionListener> completion =
+        ArgumentCaptor.forClass(DatabaseReference.CompletionListener.class);
+    verify(probesRef).updateChildren(eq(expected), completion.capture());
+    testSubscriber.assertNoValues();
+    completion.getValue().onComplete(null, probesRef);
+
+    testSubscriber.assertReceivedOnNext(Arrays.asList(2));
+    testSubscriber.assertCompleted();
+  }
+
+  @Test public void testPublishWritesTheWindowOfThisClient() {
+    DatabaseReference metricsRef = mock(DatabaseReference.class);
+    DatabaseReference regionRef = mock(DatabaseReference.class);
+    DatabaseReference clientRef = mock(DatabaseReference.class);
+    when(metricsRef.child("eu")).thenReturn(regionRef);
+    when(regionRef.child(anyString())).thenReturn(clientRef);
+    latencyProbe.getAckHistogram().record(10);
+
+    latencyProbe.publish(metricsRef).subscribe(new TestSubscriber<Void>());
+    assertThat(completePublish(clientRef, 1, null)).isEqualTo(1L);
+    assertThat(latencyProbe.getAckHistogram().getCount()).isEqualTo(0);
+
+    // a failed publish keeps the samples for the next one
+    latencyProbe.getAckHistogram().record(20);
+    latencyProbe.publish(metricsRef).subscribe(new TestSubscriber<Void>());
+    latencyProbe.getAckHistogram().record(30);
+    assertThat(completePublish(clientRef, 2, mock(DatabaseError.class))).isEqualTo(1L);
+    assertThat(latencyProbe.getAckHistogram().getCount()).isEqualTo(2);
+
+    ArgumentCaptor<String> clientId = ArgumentCaptor.forClass(String.class);
+    verify(regionRef, times(2)).child(clientId.capture());
+    assertThat(clientId.getAllValues().get(0)).isNotEmpty()
+        .isEqualTo(clientId.getAllValues().get(1));
+  }
+
+  @Test public void testHistogramPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+
+    assertThat(histogram.getCount()).isEqualTo(100);
+    assertThat(histogram.getMax()).isEqualTo(100);
+    assertThat(histogram.getMean()).isEqualTo(50.5);
+    assertThat(histogram.getPercentile(0.5)).isEqualTo(63);
+    assertThat(histogram.getPercentile(0.99)).isEqualTo(100);
+  }
+
+  private void deliverOffset() {
+    ArgumentCaptor<ValueEventListener> listener = ArgumentCaptor.forClass(ValueEventListener.class);
+    verify(offsetRef).addListenerForSingleValueEvent(listener.capture());
+    DataSnapshot dataSnapshot = mock(DataSnapshot.class);
+    when(dataSnapshot.getValue()).thenReturn(OFFSET);
+    listener.getValue().onDataChange(dataSnapshot);
+  }
+
+  private ValueEventListener captureProbeListener() {
+    ArgumentCaptor<ValueEventListener> listener = ArgumentCaptor.forClass(ValueEventListener.class);
+    verify(probeRef).addValueEventListener(listener.capture());
+    return listener.getValue();
+  }
+
+  private void acknowledge() {
+    ArgumentCaptor<DatabaseReference.CompletionListener> completion =
+        ArgumentCaptor.forClass(DatabaseReference.CompletionListener.class);
+    verify(probeRef).setValue(anyObject(), completion.capture());
+    completion.getValue().onComplete(null, probeRef);
+  }
+
+  /**
+   * Completes the given publish with the error, or successfully when it is null, and
+   * returns the ack count it sent
+   */
+  private static Object completePublish(DatabaseReference clientRef, int call,
+      DatabaseError error) {
+    ArgumentCaptor<Object> metrics = ArgumentCaptor.forClass(Object.class);
+    ArgumentCaptor<DatabaseReference.CompletionListener> completion =
+        ArgumentCaptor.forClass(DatabaseReference.CompletionListener.class);
+    verify(clientRef, times(call)).setValue(metrics.capture(), completion.capture());
+    completion.getValue().onComplete(error, clientRef);
+    return ((Map<?, ?>) ((Map<?, ?>) metrics.getValue()).get("ack")).get("count");
+  }
+
+  private static DataSnapshot keyed(String key) {
+    DataSnapshot dataSnapshot = mock(DataSnapshot.class);
+    when(dataSnapshot.getKey()).thenReturn(key);
+    return dataSnapshot;
+  }
+
+  private static DataSnapshot probeSnapshot(long serverTime) {
+    DataSnapshot dataSnapshot = mock(DataSnapshot.class);
+    DataSnapshot serverTimeSnapshot = mock(DataSnapshot.class);
+    when(dataSnapshot.child(eq(LatencyProbe.SERVER_TIME))).thenReturn(serverTimeSnapshot);
+    when(serverTimeSnapshot.getValue()).thenReturn(serverTime);
+    return dataSnapshot;
+  }
+}
@@ -0,0 +1,168 @@
+package com.soikonomakis.rxfirebase.projection;
+
+import com.google.firebase.database.DataSnapshot;
+import com.soikonomakis.rxfirebase.ApplicationTestCase;
+import com.soikonomakis.rxfirebase.FirebaseChildEvent;
+import com.soikonomakis.rxfirebase.FirebaseChildEvent.EventType;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import rx.observers.TestSubscriber;
+import rx.subjects.PublishSubject;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ProjectionTest extends ApplicationTestCase {
+
+  private final Projection projection = Projection.of("title", "author/name", "stars");
+
+  @Test public void testProjectsOnlyDeclaredFields() {
+    DataSnapshot post = post("p1", "Hello", "ann", 3L);
+
+    ProjectedRecord record = projection.call(post);
+
+    assertThat(record.getKey()).isEqualTo("p1");
+    assertThat(record.getString("title")).isEqualTo("Hello");
+    assertThat(record.getString("author/name")).isEqualTo("ann");
+    assertThat(record.getLong("stars")).isEqualTo(3L);
+    assertThat(record.getDouble("stars")).isEqualTo(3.0);
+    verify(post, never()).getValue();
+    verify(post, never()).child("body");
+  }
+
+  @Test public void testMissingFieldsAreNull() {
+    DataSnapshot post = post("p1", "Hello", null, null);
+
+    ProjectedRecord record = projection.call(post);
+
+    assertThat(record.has("title")).isTrue();
+    assertThat(record.has("author/name")).isFalse();
+    assertThat(record.getLong("stars")).isNull();
+  }
+
+  @Test public void testMismatchedTypesAreNull() {
+    ProjectedRecord record = projection.call(post("p1", "Hello", "ann", 3L));
+
+    assertThat(record.getString("stars")).isNull();
+    assertThat(record.getLong("title")).isNull();
+    assertThat(record.getBoolean("title")).isNull();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUndeclaredFieldIsRejected() {
+    projection.call(post("p1", "Hello", "ann", 3L)).get("body");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicateFieldIsRejected() {
+    Projection.of("title", "title");
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test(expected = UnsupportedOperationException.class)
+  public void testNestedValuesAreImmutable() {
+    Map<String, Object> author = new HashMap<>();
+    author.put("name", "ann");
+    DataSnapshot post = mock(DataSnapshot.class);
+    field(post, "author", author);
+
+    ProjectedRecord record = Projection.of("author").call(post);
+    author.put("name", "bob");
+
+    assertThat(((Map<?, ?>) record.get("author")).get("name")).isEqualTo("ann");
+    ((Map<String, Object>) record.get("author")).put("name", "bob");
+  }
+
+  @Test public void testRecordsAreValueObjects() {
+    assertThat(projection.call(post("p1", "Hello", "ann", 3L)))
+        .isEqualTo(projection.call(post("p1", "Hello", "ann", 3L)))
+        .isNotEqualTo(projection.call(post("p1", "Hello", "ann", 4L)));
+  }
+
+  @Test public void testChildEvents() {
+    PublishSubject<FirebaseChildEvent> events = PublishSubject.create();
+    TestSubscriber<ProjectedChildEvent> testSubscriber = new TestSubscriber<>();
+    events.compose(projection.childEvents()).subscribe(testSubscriber);
+
+    events.onNext(new FirebaseChildEvent(post("p2", "Second", "bob", 1L), "p1",
+        EventType.CHANGED));
+
+    testSubscriber.assertNoErrors();
+    ProjectedChildEvent event = testSubscriber.getOnNextEvents().get(0);
+    assertThat(event.getEventType()).isEqualTo(EventType.CHANGED);
+    assertThat(event.getPreviousChildName()).isEqualTo("p1");
+    assertThat(event.getRecord().getString("title")).isEqualTo("Second");
+  }
+
+  @Test public void testChildren() {
+    DataSnapshot posts = mock(DataSnapshot.class);
+    List<DataSnapshot> children = Arrays.asList(post("p1", "First", "ann", 1L),
+        post("p2", "Second", "bob", 2L));
+    when(posts.getChildren()).thenReturn(children);
+    when(posts.getChildrenCount()).thenReturn(2L);
+
+    TestSubscriber<List<ProjectedRecord>> testSubscriber = new TestSubscriber<>();
+    PublishSubject<DataSnapshot> values = PublishSubject.create();
+    values.compose(projection.children()).subscribe(testSubscriber);
+    values.onNext(posts);
+
+    List<ProjectedRecord> records = testSubscriber.getOnNextEvents().get(0);
+    assertThat(records).hasSize(2);
+    assertThat(records.get(0).getKey()).isEqualTo("p1");
+    assertThat(records.get(1).getLong("stars")).isEqualTo(2L);
+  }
+
+  @Test public void testSnapshotIsNotRetained() throws InterruptedException {
+    PublishSubject<DataSnapshot> values = PublishSubject.create();
+    TestSubscriber<ProjectedRecord> testSubscriber = new TestSubscriber<>();
+    values.compose(projection.values()).subscribe(testSubscriber);
+
+    WeakReference<DataSnapshot> snapshot = emit(values);
+    // the mocking progress holds on to the last stubbed mock
+    mock(DataSnapshot.class).getKey();
+    for (int i = 0; i < 20 && snapshot.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+
+    assertThat(snapshot.get()).isNull();
+    assertThat(testSubscriber.getOnNextEvents()).hasSize(1);
+  }
+
+  private WeakReference<DataSnapshot> emit(PublishSubject<DataSnapshot> values) {
+    DataSnapshot post = post("p1", "Hello", "ann", 3L);
+    values.onNext(post);
+    return new WeakReference<>(post);
+  }
+
+  private static DataSnapshot post(String key, String title, String author, Long stars) {
+    DataSnapshot post = mock(DataSnapshot.class);
+    when(post.getKey()).thenReturn(key);
+    field(post, "title", title);
+    field(post, "author/name", author);
+    field(post, "stars", stars);
+    field(post, "body", Collections.nCopies(1000, "lorem ipsum"));
+    return post;
+  }
+
+  private static void field(DataSnapshot snapshot, String path, Object value) {
+    if (value == null) {
+      return;
+    }
+    DataSnapshot child = mock(DataSnapshot.class);
+    when(child.getValue()).thenReturn(value);
+    when(snapshot.hasChild(path)).thenReturn(true);
+    when(snapshot.child(path)).thenReturn(child);
+  }
+}
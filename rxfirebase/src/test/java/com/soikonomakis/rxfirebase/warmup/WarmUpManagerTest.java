@@ -0,0 +1,180 @@
+package com.soikonomakis.rxfirebase.warmup;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+import com.soikonomakis.rxfirebase.ApplicationTestCase;
+import com.soikonomakis.rxfirebase.RxFirebase;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class WarmUpManagerTest extends ApplicationTestCase {
+
+  @After public void destroy() throws NoSuchFieldException, IllegalAccessException {
+    resetSingleton(RxFirebase.class);
+  }
+
+  @Test public void testPrimesDeclaredScreens() {
+    Query detail = mock(Query.class);
+    WarmUpManager manager = new WarmUpManager(1000, 2);
+    manager.register("detail", detail);
+    manager.declareNext("list", "detail");
+
+    manager.onNavigate("list");
+    verify(detail).keepSynced(true);
+    complete(detail, 10);
+    manager.onNavigate("detail");
+
+    WarmUpStats stats = manager.getStats();
+    assertThat(stats.getPrefetches()).isEqualTo(1);
+    assertThat(stats.getHits()).isEqualTo(1);
+    assertThat(stats.getHitRate()).isEqualTo(1d);
+  }
+
+  @Test public void testLearnsFromNavigation() {
+    Query settings = mock(Query.class);
+    Query profile = mock(Query.class);
+    WarmUpManager manager = new WarmUpManager(1000, 2, 1);
+    manager.register("settings", settings);
+    manager.register("profile", profile);
+
+    manager.onNavigate("home");
+    manager.onNavigate("profile");
+    manager.onNavigate("home");
+    manager.onNavigate("settings");
+    manager.onNavigate("home");
+    manager.onNavigate("settings");
+
+    assertThat(manager.predict("home")).isEqualTo(Arrays.asList("settings"));
+    assertThat(manager.getStats().getMisses()).isEqualTo(3);
+  }
+
+  @Test public void testConcurrencyBudget() {
+    Query first = mock(Query.class);
+    Query second = mock(Query.class);
+    WarmUpManager manager = new WarmUpManager(1000, 1);
+    manager.register("next", first, second);
+    manager.declareNext("home", "next");
+
+    manager.onNavigate("home");
+    verify(second, never()).keepSynced(true);
+
+    complete(first, 10);
+    verify(second).keepSynced(true);
+  }
+
+  @Test public void testEvictsLeastRecentlyUsedOverByteBudget() {
+    Query first = mock(Query.class);
+    Query second = mock(Query.class);
+    WarmUpManager manager = new WarmUpManager(30, 2);
+    manager.register("next", first, second);
+    manager.declareNext("home", "next");
+
+    manager.onNavigate("home");
+    complete(first, 10);
+    complete(second, 10);
+
+    verify(first).keepSynced(false);
+    verify(second, never()).keepSynced(false);
+    WarmUpStats stats = manager.getStats();
+    assertThat(stats.getEvictions()).isEqualTo(1);
+    assertThat(stats.getWarmBytes()).isLessThanOrEqualTo(30);
+  }
+
+  @Test public void testQueryOverByteBudgetIsNotFetchedAgain() {
+    Query small = mock(Query.class);
+    Query huge = mock(Query.class);
+    WarmUpManager manager = new WarmUpManager(30, 2);
+    manager.register("next", small, huge);
+    manager.declareNext("home", "next");
+
+    manager.onNavigate("home");
+    complete(small, 10);
+    complete(huge, 100);
+
+    // the oversized query neither stays synced nor evicts the warm one
+    verify(huge).keepSynced(false);
+    verify(small, never()).keepSynced(false);
+    assertThat(manager.getStats().getEvictions()).isEqualTo(0);
+
+    manager.onNavigate("next");
+    manager.onNavigate("home");
+    verify(huge, times(1)).keepSynced(true);
+    verify(huge, times(1)).addListenerForSingleValueEvent(any(ValueEventListener.class));
+  }
+
+  @Test public void testOversizedQueryIsRetriedEventually() {
+    Query huge = mock(Query.class);
+    WarmUpManager manager = new WarmUpManager(30, 2);
+    manager.register("next", huge);
+    manager.declareNext("home", "next");
+    manager.onNavigate("home");
+    complete(huge, 100);
+
+    for (int i = 0; i < WarmUpManager.OVERSIZED_SKIPS; i++) {
+      manager.onNavigate("home");
+    }
+    verify(huge, times(1)).addListenerForSingleValueEvent(any(ValueEventListener.class));
+    manager.onNavigate("home");
+    verify(huge, times(2)).addListenerForSingleValueEvent(any(ValueEventListener.class));
+  }
+
+  @Test public void testClearForgetsOversizedQueries() {
+    Query huge = mock(Query.class);
+    WarmUpManager manager = new WarmUpManager(30, 2);
+    manager.register("next", huge);
+    manager.declareNext("home", "next");
+    manager.onNavigate("home");
+    complete(huge, 100);
+
+    manager.clear();
+    manager.onNavigate("home");
+    verify(huge, times(2)).addListenerForSingleValueEvent(any(ValueEventListener.class));
+  }
+
+  @Test public void testOversizedQueriesAreBounded() {
+    Query[] queries = new Query[WarmUpManager.MAX_OVERSIZED + 1];
+    for (int i = 0; i < queries.length; i++) {
+      queries[i] = mock(Query.class);
+    }
+    WarmUpManager manager = new WarmUpManager(30, queries.length);
+    manager.register("next", queries);
+    manager.declareNext("home", "next");
+    manager.onNavigate("home");
+    for (Query query : queries) {
+      complete(query, 100);
+    }
+
+    manager.onNavigate("home");
+    // only the least recently seen one was forgotten
+    verify(queries[0], times(2)).addListenerForSingleValueEvent(any(ValueEventListener.class));
+    for (int i = 1; i < queries.length; i++) {
+      verify(queries[i], times(1)).addListenerForSingleValueEvent(
+          any(ValueEventListener.class));
+    }
+  }
+
+  /**
+   * Completes the pending single value fetch of the query with a string leaf of the
+   * given length, which is estimated at twice as many bytes
+   */
+  private static void complete(Query query, int length) {
+    ArgumentCaptor<ValueEventListener> listener = ArgumentCaptor.forClass(ValueEventListener.class);
+    verify(query).addListenerForSingleValueEvent(listener.capture());
+    DataSnapshot dataSnapshot = mock(DataSnapshot.class);
+    when(dataSnapshot.getValue()).thenReturn(new String(new char[length]));
+    listener.getValue().onDataChange(dataSnapshot);
+  }
+}
@@ -0,0 +1,332 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soikonomakis.rxfirebase2;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.auth.AuthCredential;
+import com.google.firebase.auth.AuthResult;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+import com.soikonomakis.rxfirebase2.FirebaseChildEvent.EventType;
+import com.soikonomakis.rxfirebase2.exceptions.FirebaseDatabaseError;
+
+import java.util.Map;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Completable;
+import io.reactivex.CompletableEmitter;
+import io.reactivex.CompletableOnSubscribe;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableEmitter;
+import io.reactivex.FlowableOnSubscribe;
+import io.reactivex.Maybe;
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.reactivex.SingleOnSubscribe;
+import io.reactivex.functions.Cancellable;
+import io.reactivex.functions.Predicate;
+
+/**
+ * The RxJava 2 wrapper of the firebase functionality.
+ *
+ * <p>Listeners are exposed as {@link Flowable}s so that a slow consumer is handled by
+ * a backpressure strategy instead of an unbounded queue: value events keep only the
+ * latest snapshot, since every snapshot supersedes the previous one, while child
+ * events are buffered because each of them carries a distinct change. One shot reads
+ * are {@link Single}s, or {@link Maybe}s when the location may be empty, and writes
+ * are {@link Completable}s. Firebase delivers its callbacks on the main thread, so the
+ * sources do no scheduling of their own and the operators applied downstream fuse with
+ * each other.
+ */
+public class RxFirebase {
+
+  private static RxFirebase instance;
+
+  /**
+   * Singleton
+   *
+   * @return {@link RxFirebase}
+   */
+  public static synchronized RxFirebase getInstance() {
+    if (instance == null) {
+      instance = new RxFirebase();
+    }
+    return instance;
+  }
+
+  //Prevent constructor initialisation
+  private RxFirebase() {
+
+  }
+
+  /**
+   * Attempts to authenticate to Firebase with an OAuth token from a provider supported by
+   * Firebase Login. This method only works for providers that only require a 'access_token'
+   * as a parameter
+   */
+  public Single<AuthResult> observeAuthWithCredential(final AuthCredential authCredential) {
+    return Single.create(new SingleOnSubscribe<AuthResult>() {
+      @Override public void subscribe(SingleEmitter<AuthResult> emitter) {
+        Task<AuthResult> task = FirebaseAuth.getInstance().signInWithCredential(authCredential);
+        configureAuthResultListener(emitter, task);
+      }
+    });
+  }
+
+  /**
+   * Signs in anonymously
+   */
+  public Single<AuthResult> observeAuthAnonymous() {
+    return Single.create(new SingleOnSubscribe<AuthResult>() {
+      @Override public void subscribe(SingleEmitter<AuthResult> emitter) {
+        Task<AuthResult> task = FirebaseAuth.getInstance().signInAnonymously();
+        configureAuthResultListener(emitter, task);
+      }
+    });
+  }
+
+  /**
+   * Observes a firebase query with a {@link ValueEventListener}. Only the latest
+   * snapshot is kept while the subscriber is not requesting.
+   */
+  public Flowable<DataSnapshot> observeValueEvent(final Query ref) {
+    return Flowable.create(new FlowableOnSubscribe<DataSnapshot>() {
+      @Override public void subscribe(final FlowableEmitter<DataSnapshot> emitter) {
+        final ValueEventListener listener = ref.addValueEventListener(new ValueEventListener() {
+          @Override public void onDataChange(DataSnapshot dataSnapshot) {
+            emitter.onNext(dataSnapshot);
+          }
+
+          @Override public void onCancelled(DatabaseError error) {
+            if (!emitter.isCancelled()) {
+              emitter.onError(toException(error));
+            }
+          }
+        });
+
+        // When the subscription is cancelled, remove the listener
+        emitter.setCancellable(new Cancellable() {
+          @Override public void cancel() {
+            ref.removeEventListener(listener);
+          }
+        });
+      }
+    }, BackpressureStrategy.LATEST);
+  }
+
+  /**
+   * Observes a firebase query ONCE with a {@link ValueEventListener}
+   */
+  public Single<DataSnapshot> observeSingleValue(final Query ref) {
+    return Single.create(new SingleOnSubscribe<DataSnapshot>() {
+      @Override public void subscribe(final SingleEmitter<DataSnapshot> emitter) {
+        final ValueEventListener listener = new ValueEventListener() {
+          @Override public void onDataChange(DataSnapshot dataSnapshot) {
+            emitter.onSuccess(dataSnapshot);
+          }
+
+          @Override public void onCancelled(DatabaseError error) {
+            if (!emitter.isDisposed()) {
+              emitter.onError(toException(error));
+            }
+          }
+        };
+
+        ref.addListenerForSingleValueEvent(listener);
+
+        // When the subscription is cancelled, remove the listener
+        emitter.setCancellable(new Cancellable() {
+          @Override public void cancel() {
+            ref.removeEventListener(listener);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Observes a firebase query ONCE and completes without a value when nothing is
+   * stored at its location
+   */
+  public Maybe<DataSnapshot> observeSingleValueIfExists(Query ref) {
+    return observeSingleValue(ref).filter(new Predicate<DataSnapshot>() {
+      @Override public boolean test(DataSnapshot dataSnapshot) {
+        return dataSnapshot.exists();
+      }
+    });
+  }
+
+  /**
+   * Observes a firebase query with a {@link ChildEventListener}. Events are buffered
+   * while the subscriber is not requesting.
+   */
+  public Flowable<FirebaseChildEvent> observeChildEvent(final Query ref) {
+    return Flowable.create(new FlowableOnSubscribe<FirebaseChildEvent>() {
+      @Override public void subscribe(final FlowableEmitter<FirebaseChildEvent> emitter) {
+        final ChildEventListener childEventListener =
+            ref.addChildEventListener(new ChildEventListener() {
+              @Override
+              public void onChildAdded(DataSnapshot dataSnapshot, String previousChildName) {
+                emitter.onNext(
+                    new FirebaseChildEvent(dataSnapshot, previousChildName, EventType.ADDED));
+              }
+
+              @Override
+              public void onChildChanged(DataSnapshot dataSnapshot, String previousChildName) {
+                emitter.onNext(
+                    new FirebaseChildEvent(dataSnapshot, previousChildName, EventType.CHANGED));
+              }
+
+              @Override public void onChildRemoved(DataSnapshot dataSnapshot) {
+                emitter.onNext(new FirebaseChildEvent(dataSnapshot, EventType.REMOVED));
+              }
+
+              @Override
+              public void onChildMoved(DataSnapshot dataSnapshot, String previousChildName) {
+                emitter.onNext(
+                    new FirebaseChildEvent(dataSnapshot, previousChildName, EventType.MOVED));
+              }
+
+              @Override public void onCancelled(DatabaseError error) {
+                if (!emitter.isCancelled()) {
+                  emitter.onError(toException(error));
+                }
+              }
+            });
+
+        // this is used to remove the listener when the subscriber is cancelled
+        emitter.setCancellable(new Cancellable() {
+          @Override public void cancel() {
+            ref.removeEventListener(childEventListener);
+          }
+        });
+      }
+    }, BackpressureStrategy.BUFFER);
+  }
+
+  /**
+   * Creates a flowable only for the child added method
+   */
+  public Flowable<FirebaseChildEvent> observeChildAdded(Query ref) {
+    return observeChildEvent(ref).filter(filterChildEvent(EventType.ADDED));
+  }
+
+  /**
+   * Creates a flowable only for the child changed method
+   */
+  public Flowable<FirebaseChildEvent> observeChildChanged(Query ref) {
+    return observeChildEvent(ref).filter(filterChildEvent(EventType.CHANGED));
+  }
+
+  /**
+   * Creates a flowable only for the child removed method
+   */
+  public Flowable<FirebaseChildEvent> observeChildRemoved(Query ref) {
+    return observeChildEvent(ref).filter(filterChildEvent(EventType.REMOVED));
+  }
+
+  /**
+   * Creates a flowable only for the child moved method
+   */
+  public Flowable<FirebaseChildEvent> observeChildMoved(Query ref) {
+    return observeChildEvent(ref).filter(filterChildEvent(EventType.MOVED));
+  }
+
+  /**
+   * Writes a value and completes once the server acknowledged it
+   */
+  public Completable setValue(final DatabaseReference ref, final Object value) {
+    return Completable.create(new CompletableOnSubscribe() {
+      @Override public void subscribe(CompletableEmitter emitter) {
+        ref.setValue(value, completionListener(emitter));
+      }
+    });
+  }
+
+  /**
+   * Updates the given children and completes once the server acknowledged it
+   */
+  public Completable updateChildren(final DatabaseReference ref,
+      final Map<String, Object> update) {
+    return Completable.create(new CompletableOnSubscribe() {
+      @Override public void subscribe(CompletableEmitter emitter) {
+        ref.updateChildren(update, completionListener(emitter));
+      }
+    });
+  }
+
+  /**
+   * Removes the value and completes once the server acknowledged it
+   */
+  public Completable removeValue(final DatabaseReference ref) {
+    return Completable.create(new CompletableOnSubscribe() {
+      @Override public void subscribe(CompletableEmitter emitter) {
+        ref.removeValue(completionListener(emitter));
+      }
+    });
+  }
+
+  /**
+   * Predicate which filters a stream of {@link FirebaseChildEvent} according to firebase
+   * child event type
+   */
+  private Predicate<FirebaseChildEvent> filterChildEvent(final EventType type) {
+    return new Predicate<FirebaseChildEvent>() {
+      @Override public boolean test(FirebaseChildEvent firebaseChildEvent) {
+        return firebaseChildEvent.getEventType() == type;
+      }
+    };
+  }
+
+  private DatabaseReference.CompletionListener completionListener(
+      final CompletableEmitter emitter) {
+    return new DatabaseReference.CompletionListener() {
+      @Override public void onComplete(DatabaseError error, DatabaseReference ref) {
+        if (error == null) {
+          emitter.onComplete();
+        } else if (!emitter.isDisposed()) {
+          emitter.onError(toException(error));
+        }
+      }
+    };
+  }
+
+  private static FirebaseDatabaseError toException(DatabaseError error) {
+    return new FirebaseDatabaseError(error.getCode(), error.getMessage() + error.getDetails());
+  }
+
+  private void configureAuthResultListener(final SingleEmitter<AuthResult> emitter,
+      Task<AuthResult> task) {
+    task.addOnFailureListener(new OnFailureListener() {
+      @Override public void onFailure(@NonNull Exception e) {
+        if (!emitter.isDisposed()) {
+          emitter.onError(e);
+        }
+      }
+    }).addOnSuccessListener(new OnSuccessListener<AuthResult>() {
+      @Override public void onSuccess(AuthResult authResult) {
+        emitter.onSuccess(authResult);
+      }
+    });
+  }
+}
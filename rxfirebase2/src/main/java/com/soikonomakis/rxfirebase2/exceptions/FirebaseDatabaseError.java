@@ -0,0 +1,15 @@
+package com.soikonomakis.rxfirebase2.exceptions;
+
+public class FirebaseDatabaseError extends Exception {
+
+    private final int code;
+
+    public FirebaseDatabaseError(int code, String detailMessage) {
+        super(detailMessage);
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+}
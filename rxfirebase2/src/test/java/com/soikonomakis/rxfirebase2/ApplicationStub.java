@@ -0,0 +1,11 @@
+package com.soikonomakis.rxfirebase2;
+
+import android.app.Application;
+
+public class ApplicationStub extends Application {
+
+  @Override public void onCreate() {
+    super.onCreate();
+    //Firebase.setAndroidContext(this);
+  }
+}
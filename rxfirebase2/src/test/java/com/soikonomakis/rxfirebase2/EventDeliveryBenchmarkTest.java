@@ -0,0 +1,156 @@
+package com.soikonomakis.rxfirebase2;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.Query;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
+import rx.Subscription;
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Compares the cost of delivering child events through the RxJava 1 and the RxJava 2
+ * wrappers, each as it is meant to be used and with the same operators applied
+ * downstream. Checks that every event got through both and records the timings in
+ * {@code build/reports/benchmarks/event-delivery.txt}. Runs only when the
+ * {@code rxfirebase.benchmark} system property is set.
+ */
+public class EventDeliveryBenchmarkTest extends ApplicationTestCase {
+
+  private static final int WARM_UP_EVENTS = 200000;
+
+  private static final int MEASURED_EVENTS = 1000000;
+
+  private static final File REPORT = new File("build/reports/benchmarks/event-delivery.txt");
+
+  private Query mockRef;
+  private ChildEventListener listener;
+  private DataSnapshot mockDataSnapshot;
+  private long consumed;
+
+  @Before public void setUp() {
+    assumeTrue(Boolean.getBoolean("rxfirebase.benchmark"));
+    mockRef = mock(Query.class);
+    mockDataSnapshot = mock(DataSnapshot.class);
+    doAnswer(new Answer<Object>() {
+      @Override public Object answer(InvocationOnMock invocation) {
+        listener = (ChildEventListener) invocation.getArguments()[0];
+        return listener;
+      }
+    }).when(mockRef).addChildEventListener(any(ChildEventListener.class));
+  }
+
+  @After public void destroy() throws NoSuchFieldException, IllegalAccessException {
+    resetSingleton(RxFirebase.class);
+    resetSingleton(com.soikonomakis.rxfirebase.RxFirebase.class);
+  }
+
+  @Test public void testChildEventDelivery() throws IOException {
+    long rx2 = Math.min(measureRx2(), measureRx2());
+    long rx1 = Math.min(measureRx1(), measureRx1());
+
+    String report = String.format(Locale.US, "child event delivery, map and filter "
+            + "downstream: RxJava 1 %.1f ns/event, RxJava 2 %.1f ns/event (%.2fx)%n",
+        perEvent(rx1), perEvent(rx2), (double) rx2 / rx1);
+    REPORT.getParentFile().mkdirs();
+    Writer writer = new OutputStreamWriter(new FileOutputStream(REPORT, true), "UTF-8");
+    try {
+      writer.write(report);
+    } finally {
+      writer.close();
+    }
+  }
+
+  private long measureRx1() {
+    consumed = 0;
+    Subscription subscription = com.soikonomakis.rxfirebase.RxFirebase.getInstance()
+        .observeChildAdded(mockRef)
+        .map(new Func1<com.soikonomakis.rxfirebase.FirebaseChildEvent, DataSnapshot>() {
+          @Override
+          public DataSnapshot call(com.soikonomakis.rxfirebase.FirebaseChildEvent event) {
+            return event.getDataSnapshot();
+          }
+        })
+        .filter(new Func1<DataSnapshot, Boolean>() {
+          @Override public Boolean call(DataSnapshot dataSnapshot) {
+            return dataSnapshot != null;
+          }
+        })
+        .subscribe(new Action1<DataSnapshot>() {
+          @Override public void call(DataSnapshot dataSnapshot) {
+            consumed++;
+          }
+        });
+    try {
+      return deliver();
+    } finally {
+      subscription.unsubscribe();
+    }
+  }
+
+  private long measureRx2() {
+    consumed = 0;
+    Disposable disposable = RxFirebase.getInstance()
+        .observeChildAdded(mockRef)
+        .map(new Function<FirebaseChildEvent, DataSnapshot>() {
+          @Override public DataSnapshot apply(FirebaseChildEvent event) {
+            return event.getDataSnapshot();
+          }
+        })
+        .filter(new Predicate<DataSnapshot>() {
+          @Override public boolean test(DataSnapshot dataSnapshot) {
+            return dataSnapshot != null;
+          }
+        })
+        .subscribe(new Consumer<DataSnapshot>() {
+          @Override public void accept(DataSnapshot dataSnapshot) {
+            consumed++;
+          }
+        });
+    try {
+      return deliver();
+    } finally {
+      disposable.dispose();
+    }
+  }
+
+  private static double perEvent(long nanos) {
+    return (double) nanos / MEASURED_EVENTS;
+  }
+
+  private long deliver() {
+    for (int i = 0; i < WARM_UP_EVENTS; i++) {
+      listener.onChildAdded(mockDataSnapshot, null);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < MEASURED_EVENTS; i++) {
+      listener.onChildAdded(mockDataSnapshot, null);
+    }
+    long elapsed = System.nanoTime() - start;
+    assertThat(consumed).isEqualTo(WARM_UP_EVENTS + MEASURED_EVENTS);
+    return elapsed;
+  }
+}
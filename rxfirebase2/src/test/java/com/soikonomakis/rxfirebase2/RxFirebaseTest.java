@@ -0,0 +1,178 @@
+package com.soikonomakis.rxfirebase2;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+import com.soikonomakis.rxfirebase2.exceptions.FirebaseDatabaseError;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subscribers.TestSubscriber;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RxFirebaseTest extends ApplicationTestCase {
+
+  private RxFirebase rxFirebase;
+  @Mock private DatabaseReference mockRef;
+  @Mock private DataSnapshot mockDataSnapshot;
+  @Mock private DataSnapshot otherDataSnapshot;
+
+  @Before public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    Answer<Object> returnListener = new Answer<Object>() {
+      @Override public Object answer(InvocationOnMock invocation) {
+        return invocation.getArguments()[0];
+      }
+    };
+    doAnswer(returnListener).when(mockRef).addValueEventListener(any(ValueEventListener.class));
+    doAnswer(returnListener).when(mockRef).addChildEventListener(any(ChildEventListener.class));
+
+    rxFirebase = RxFirebase.getInstance();
+  }
+
+  @After public void destroy() throws NoSuchFieldException, IllegalAccessException {
+    resetSingleton(RxFirebase.class);
+    rxFirebase = null;
+  }
+
+  @Test public void testObserveValueKeepsLatestWhileNotRequested() {
+    TestSubscriber<DataSnapshot> testSubscriber = new TestSubscriber<>(0);
+    rxFirebase.observeValueEvent(mockRef).subscribe(testSubscriber);
+    ValueEventListener listener = captureValueListener();
+
+    listener.onDataChange(mockDataSnapshot);
+    listener.onDataChange(otherDataSnapshot);
+    testSubscriber.assertNoValues();
+
+    testSubscriber.request(1);
+    testSubscriber.assertValues(otherDataSnapshot);
+    testSubscriber.assertNoErrors();
+    testSubscriber.assertNotComplete();
+  }
+
+  @Test public void testObserveValueRemovesListenerOnCancel() {
+    TestSubscriber<DataSnapshot> testSubscriber = rxFirebase.observeValueEvent(mockRef).test();
+    ValueEventListener listener = captureValueListener();
+
+    testSubscriber.cancel();
+
+    verify(mockRef).removeEventListener(listener);
+  }
+
+  @Test public void testObserveValueCancelled() {
+    TestSubscriber<DataSnapshot> testSubscriber = rxFirebase.observeValueEvent(mockRef).test();
+
+    captureValueListener().onCancelled(mock(DatabaseError.class));
+
+    testSubscriber.assertError(FirebaseDatabaseError.class);
+  }
+
+  @Test public void testObserveChildEventsAreBuffered() {
+    TestSubscriber<FirebaseChildEvent> testSubscriber = new TestSubscriber<>(0);
+    rxFirebase.observeChildEvent(mockRef).subscribe(testSubscriber);
+    ChildEventListener listener = captureChildListener();
+
+    listener.onChildAdded(mockDataSnapshot, null);
+    listener.onChildChanged(mockDataSnapshot, "a");
+    listener.onChildRemoved(otherDataSnapshot);
+    testSubscriber.assertNoValues();
+
+    testSubscriber.request(3);
+    testSubscriber.assertValueCount(3);
+    assertThat(testSubscriber.values().get(0).getEventType())
+        .isEqualTo(FirebaseChildEvent.EventType.ADDED);
+    assertThat(testSubscriber.values().get(1).getPreviousChildName()).isEqualTo("a");
+    assertThat(testSubscriber.values().get(2).getDataSnapshot()).isSameAs(otherDataSnapshot);
+
+    testSubscriber.cancel();
+    verify(mockRef).removeEventListener(listener);
+  }
+
+  @Test public void testObserveChildAdded() {
+    TestSubscriber<FirebaseChildEvent> testSubscriber =
+        rxFirebase.observeChildAdded(mockRef).test();
+    ChildEventListener listener = captureChildListener();
+
+    listener.onChildChanged(otherDataSnapshot, null);
+    listener.onChildAdded(mockDataSnapshot, null);
+
+    testSubscriber.assertValueCount(1);
+    assertThat(testSubscriber.values().get(0).getDataSnapshot()).isSameAs(mockDataSnapshot);
+  }
+
+  @Test public void testObserveSingleValue() {
+    TestObserver<DataSnapshot> testObserver = rxFirebase.observeSingleValue(mockRef).test();
+    ArgumentCaptor<ValueEventListener> listener = ArgumentCaptor.forClass(ValueEventListener.class);
+    verify(mockRef).addListenerForSingleValueEvent(listener.capture());
+
+    listener.getValue().onDataChange(mockDataSnapshot);
+
+    testObserver.assertValue(mockDataSnapshot);
+    testObserver.assertComplete();
+  }
+
+  @Test public void testObserveSingleValueIfExists() {
+    when(mockDataSnapshot.exists()).thenReturn(false);
+    TestObserver<DataSnapshot> testObserver =
+        rxFirebase.observeSingleValueIfExists(mockRef).test();
+    ArgumentCaptor<ValueEventListener> listener = ArgumentCaptor.forClass(ValueEventListener.class);
+    verify(mockRef).addListenerForSingleValueEvent(listener.capture());
+
+    listener.getValue().onDataChange(mockDataSnapshot);
+
+    testObserver.assertNoValues();
+    testObserver.assertComplete();
+  }
+
+  @Test public void testSetValue() {
+    TestObserver<Void> testObserver = rxFirebase.setValue(mockRef, "value").test();
+    ArgumentCaptor<DatabaseReference.CompletionListener> completion =
+        ArgumentCaptor.forClass(DatabaseReference.CompletionListener.class);
+    verify(mockRef).setValue(eq("value"), completion.capture());
+    testObserver.assertNotComplete();
+
+    completion.getValue().onComplete(null, mockRef);
+
+    testObserver.assertComplete();
+  }
+
+  @Test public void testRemoveValueError() {
+    TestObserver<Void> testObserver = rxFirebase.removeValue(mockRef).test();
+    ArgumentCaptor<DatabaseReference.CompletionListener> completion =
+        ArgumentCaptor.forClass(DatabaseReference.CompletionListener.class);
+    verify(mockRef).removeValue(completion.capture());
+
+    completion.getValue().onComplete(mock(DatabaseError.class), mockRef);
+
+    testObserver.assertError(FirebaseDatabaseError.class);
+  }
+
+  private ValueEventListener captureValueListener() {
+    ArgumentCaptor<ValueEventListener> listener = ArgumentCaptor.forClass(ValueEventListener.class);
+    verify(mockRef).addValueEventListener(listener.capture());
+    return listener.getValue();
+  }
+
+  private ChildEventListener captureChildListener() {
+    ArgumentCaptor<ChildEventListener> listener = ArgumentCaptor.forClass(ChildEventListener.class);
+    verify(mockRef).addChildEventListener(listener.capture());
+    return listener.getValue();
+  }
+}